@@ -0,0 +1,175 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.PersistenceNucleusContext;
+import org.datanucleus.exceptions.ClassNotResolvedException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.MetaDataListener;
+
+/**
+ * Cache of the resolution of the class token in a URL (entity name or class name) to its metadata and class.
+ * Tokens that don't resolve to a persistable class are also cached (up to a limit), so that requests for unknown classes
+ * don't keep hitting the class loader. The cache registers as a listener with the MetaDataManager, and whenever metadata
+ * for a new class is loaded the unresolvable tokens are forgotten, since they may now resolve. Resolved tokens stay cached,
+ * since loading metadata for another class doesn't change them.
+ */
+public class ClassMetaDataCache implements MetaDataListener
+{
+    /** Max number of unresolvable tokens to remember. When reached the negative cache is cleared. */
+    private static final int MAX_UNRESOLVED = 1000;
+
+    /**
+     * Resolved information for a persistable class.
+     */
+    public static class ClassInfo
+    {
+        final AbstractClassMetaData cmd;
+        final Class cls;
+        final Class objectIdClass;
+
+        ClassInfo(AbstractClassMetaData cmd, Class cls, Class objectIdClass)
+        {
+            this.cmd = cmd;
+            this.cls = cls;
+            this.objectIdClass = objectIdClass;
+        }
+
+        public AbstractClassMetaData getClassMetaData()
+        {
+            return cmd;
+        }
+
+        public Class getPersistableClass()
+        {
+            return cls;
+        }
+
+        public IdentityType getIdentityType()
+        {
+            return cmd.getIdentityType();
+        }
+
+        public boolean usesSingleFieldIdentity()
+        {
+            return cmd.usesSingleFieldIdentityClass();
+        }
+
+        /**
+         * Accessor for the class of the identity (only for application identity).
+         * @return The object id class, or null if not application identity
+         */
+        public Class getObjectIdClass()
+        {
+            return objectIdClass;
+        }
+    }
+
+    final PersistenceNucleusContext nucCtx;
+
+    final Map<String, ClassInfo> resolved = new ConcurrentHashMap<>();
+
+    /** Map of unresolvable token, keyed by the token, with value being the message for the failure. */
+    final Map<String, String> unresolved = new ConcurrentHashMap<>();
+
+    /** Incremented on each metadata change so a resolution that overlapped it isn't cached as unresolvable. */
+    final AtomicLong generation = new AtomicLong();
+
+    public ClassMetaDataCache(PersistenceNucleusContext nucCtx)
+    {
+        this.nucCtx = nucCtx;
+    }
+
+    /**
+     * Accessor for the resolved class information for the specified URL token (entity name or class name).
+     * @param token The token
+     * @return The class information
+     * @throws ClassNotResolvedException if the token doesn't represent a persistable class
+     */
+    public ClassInfo getClassInfo(String token)
+    {
+        ClassInfo info = resolved.get(token);
+        if (info != null)
+        {
+            return info;
+        }
+        String failureMsg = unresolved.get(token);
+        if (failureMsg != null)
+        {
+            throw new ClassNotResolvedException(failureMsg);
+        }
+
+        long gen = generation.get();
+        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
+        AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForEntityName(token);
+        try
+        {
+            if (cmd == null)
+            {
+                cmd = nucCtx.getMetaDataManager().getMetaDataForClass(token, clr);
+            }
+            if (cmd == null)
+            {
+                throw new ClassNotResolvedException("Class " + token + " is not persistable");
+            }
+        }
+        catch (ClassNotResolvedException cnre)
+        {
+            if (gen == generation.get())
+            {
+                if (unresolved.size() >= MAX_UNRESOLVED)
+                {
+                    unresolved.clear();
+                }
+                unresolved.put(token, cnre.getMessage());
+            }
+            throw cnre;
+        }
+
+        Class cls = clr.classForName(cmd.getFullClassName(), true);
+        Class objectIdClass = (cmd.getIdentityType() == IdentityType.APPLICATION) ? clr.classForName(cmd.getObjectidClass()) : null;
+        info = new ClassInfo(cmd, cls, objectIdClass);
+        resolved.put(token, info);
+        return info;
+    }
+
+    /**
+     * Method to clear all cached resolutions.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        resolved.clear();
+        unresolved.clear();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.metadata.MetaDataListener#loaded(org.datanucleus.metadata.AbstractClassMetaData)
+     */
+    public void loaded(AbstractClassMetaData cmd)
+    {
+        generation.incrementAndGet();
+        unresolved.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,248 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jdo.FetchGroup;
+import javax.jdo.FetchPlan;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.PersistenceNucleusContext;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlanCache;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.RelationType;
+
+/**
+ * Cache of the fetch groups for the "fields" specifications of requests (e.g "name,address.city"), so that the output
+ * (and what is loaded from the datastore) can be limited to the requested members. A specification is a comma-separated
+ * list of member paths from the candidate class, where a path ending at a relation includes the default fetch group of
+ * the related class. The fetch group for a specification is built once and registered with the PMF, up to the maximum
+ * number of specifications, after which fetch groups are built per request in the scope of the PersistenceManager.
+ * Since fetch groups are defined per class, members requested for a class apply wherever that class appears in the graph.
+ */
+public class FieldsFetchGroupCache
+{
+    private static final String GROUP_PREFIX = "rest.fields:";
+
+    /**
+     * Fetch group definition for a specification.
+     */
+    static class FieldsGroup
+    {
+        final String name;
+
+        /** Members to fetch, keyed by the class metadata. An empty set means the default fetch group of the class. */
+        final Map<AbstractClassMetaData, Set<String>> members;
+
+        /** Fetch depth needed to reach the end of the longest path. */
+        final int depth;
+
+        FieldsGroup(String name, Map<AbstractClassMetaData, Set<String>> members, int depth)
+        {
+            this.name = name;
+            this.members = members;
+            this.depth = depth;
+        }
+    }
+
+    final PersistenceManagerFactory pmf;
+
+    final PersistenceNucleusContext nucCtx;
+
+    final int maxSize;
+
+    /** Cache of the serialisation plans, giving the related class of container members. */
+    final SerialisationPlanCache plans;
+
+    /** Specifications whose fetch groups are registered with the PMF, keyed by candidate class name and specification. */
+    final Map<String, FieldsGroup> registered = new ConcurrentHashMap<>();
+
+    public FieldsFetchGroupCache(PersistenceManagerFactory pmf, PersistenceNucleusContext nucCtx, int maxSize, SerialisationPlanCache plans)
+    {
+        this.pmf = pmf;
+        this.nucCtx = nucCtx;
+        this.maxSize = maxSize;
+        this.plans = plans;
+    }
+
+    /**
+     * Method to make the fetch plan of the PersistenceManager fetch just the specified members, replacing any groups
+     * currently in the fetch plan. The max fetch depth is increased if needed to reach the end of the longest path.
+     * @param pm PersistenceManager
+     * @param cmd Metadata for the candidate class
+     * @param fields The fields specification
+     * @throws NucleusUserException if a path in the specification doesn't refer to a member, or passes through a non-relation
+     */
+    public void applyFields(PersistenceManager pm, AbstractClassMetaData cmd, String fields)
+    {
+        String key = cmd.getFullClassName() + '|' + fields;
+        FieldsGroup group = registered.get(key);
+        if (group == null)
+        {
+            group = buildGroup(cmd, fields);
+            if (registered.size() < maxSize)
+            {
+                pmf.addFetchGroups(createFetchGroups(group, null));
+                registered.put(key, group);
+            }
+            else
+            {
+                createFetchGroups(group, pm);
+            }
+        }
+
+        FetchPlan fetchPlan = pm.getFetchPlan();
+        fetchPlan.setGroup(group.name);
+        if (fetchPlan.getMaxFetchDepth() >= 0 && fetchPlan.getMaxFetchDepth() < group.depth)
+        {
+            fetchPlan.setMaxFetchDepth(group.depth);
+        }
+    }
+
+    /**
+     * Method to create the fetch groups for the classes of the definition.
+     * @param group The definition
+     * @param pm PersistenceManager to scope the fetch groups to, or null to create them for the PMF
+     * @return The fetch groups
+     */
+    private FetchGroup[] createFetchGroups(FieldsGroup group, PersistenceManager pm)
+    {
+        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
+        FetchGroup[] fetchGroups = new FetchGroup[group.members.size()];
+        int i = 0;
+        for (Map.Entry<AbstractClassMetaData, Set<String>> entry : group.members.entrySet())
+        {
+            Class cls = clr.classForName(entry.getKey().getFullClassName());
+            FetchGroup fetchGroup = (pm != null) ? pm.getFetchGroup(cls, group.name) : pmf.getFetchGroup(cls, group.name);
+            if (entry.getValue().isEmpty())
+            {
+                fetchGroup.addCategory(FetchGroup.DEFAULT);
+            }
+            else
+            {
+                fetchGroup.addMembers(entry.getValue().toArray(new String[entry.getValue().size()]));
+            }
+            fetchGroups[i++] = fetchGroup;
+        }
+        return fetchGroups;
+    }
+
+    /**
+     * Method to parse the specification into the members to fetch for each class.
+     * @param cmd Metadata for the candidate class
+     * @param fields The fields specification
+     * @return The definition
+     */
+    private FieldsGroup buildGroup(AbstractClassMetaData cmd, String fields)
+    {
+        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
+        Set<String> paths = new TreeSet<>();
+        StringTokenizer tokenizer = new StringTokenizer(fields, ",");
+        while (tokenizer.hasMoreTokens())
+        {
+            String path = tokenizer.nextToken().trim();
+            if (path.length() > 0)
+            {
+                paths.add(path);
+            }
+        }
+
+        Map<AbstractClassMetaData, Set<String>> members = new HashMap<>();
+        members.put(cmd, new LinkedHashSet<String>());
+        int depth = 1;
+        for (String path : paths)
+        {
+            String[] names = path.split("\\.");
+            AbstractClassMetaData memberCmd = cmd;
+            for (int i = 0; i < names.length; i++)
+            {
+                AbstractMemberMetaData mmd = memberCmd.getMetaDataForMember(names[i]);
+                if (mmd == null)
+                {
+                    throw new NucleusUserException("Field \"" + names[i] + "\" in \"" + path + "\" is not a member of " + memberCmd.getFullClassName());
+                }
+                members.get(memberCmd).add(mmd.getName());
+
+                AbstractClassMetaData relatedCmd = getRelatedClassMetaData(memberCmd, mmd, clr);
+                if (i < names.length - 1 && relatedCmd == null)
+                {
+                    throw new NucleusUserException("Field \"" + names[i] + "\" in \"" + path + "\" is not a relation so can't have sub-fields");
+                }
+                if (relatedCmd != null)
+                {
+                    // An empty set means the default fetch group, unless sub-fields are specified
+                    Set<String> relatedMembers = members.get(relatedCmd);
+                    if (relatedMembers == null)
+                    {
+                        relatedMembers = new LinkedHashSet<>();
+                        members.put(relatedCmd, relatedMembers);
+                    }
+                    depth = Math.max(depth, i + 1);
+                }
+                memberCmd = relatedCmd;
+            }
+        }
+
+        String name = GROUP_PREFIX + cmd.getFullClassName() + ':' + String.join(",", paths);
+        return new FieldsGroup(name, members, depth);
+    }
+
+    /**
+     * Convenience accessor for the metadata of the persistable class related via the member, if any.
+     * @param cmd Metadata for the class owning the member
+     * @param mmd Metadata for the member
+     * @param clr ClassLoader resolver
+     * @return Metadata for the related class (element for a collection/array, value for a map), or null if not a relation
+     */
+    private AbstractClassMetaData getRelatedClassMetaData(AbstractClassMetaData cmd, AbstractMemberMetaData mmd, ClassLoaderResolver clr)
+    {
+        RelationType relationType = mmd.getRelationType(clr);
+        if (relationType == RelationType.NONE)
+        {
+            return null;
+        }
+        if (RelationType.isRelationSingleValued(relationType))
+        {
+            return nucCtx.getMetaDataManager().getMetaDataForClass(mmd.getType(), clr);
+        }
+
+        SerialisationPlan.MemberPlan memberPlan = plans.getPlan(cmd, clr).getMember(mmd.getAbsoluteFieldNumber());
+        switch (memberPlan.getContainerType())
+        {
+            case COLLECTION:
+            case ARRAY:
+                return memberPlan.getElementClassMetaData();
+            case MAP:
+                return (memberPlan.getValueClassMetaData() != null) ? memberPlan.getValueClassMetaData() : memberPlan.getKeyClassMetaData();
+            default:
+                return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,607 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.datanucleus.api.rest.orgjson.JSONArray;
+import org.datanucleus.api.rest.orgjson.JSONException;
+import org.datanucleus.api.rest.orgjson.JSONObject;
+import org.datanucleus.api.rest.orgjson.JSONString;
+
+/**
+ * Writer of JSON text direct to an OutputStream, in UTF-8, without building a JSONObject/JSONArray tree first.
+ * Output is accumulated in a byte buffer that is reused by subsequent writers on the same thread, and is written
+ * to the stream when full. Commas between object members and array elements are added automatically.
+ * String escaping follows {@link JSONObject#quote(String)}.
+ * <p>
+ * Typical usage is
+ * <pre>
+ * writer.beginObject();
+ * writer.key("name");
+ * writer.value("Fred");
+ * writer.endObject();
+ * writer.close();
+ * </pre>
+ * An instance is not thread-safe.
+ */
+public class JSONStreamWriter
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final byte[] TRUE = "true".getBytes();
+
+    private static final byte[] FALSE = "false".getBytes();
+
+    private static final byte[] NULL = "null".getBytes();
+
+    /** Buffer released by the last writer closed on this thread. */
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    private OutputStream out;
+
+    private byte[] buf;
+
+    private int pos = 0;
+
+    /**
+     * For each level of nesting, whether a member/element has been written at that level. Grown as needed, since the depth
+     * of a graph of objects is bounded by the SerialisationContext rather than by this writer.
+     */
+    private boolean[] hasMember = new boolean[32];
+
+    private int depth = 0;
+
+    /** Whether a key has just been written, so the next value doesn't need a comma. */
+    private boolean afterKey = false;
+
+    /**
+     * Constructor for a writer to the specified stream.
+     * @param out The stream to write to
+     */
+    public JSONStreamWriter(OutputStream out)
+    {
+        this.out = out;
+        this.buf = buffers.get();
+        if (buf == null)
+        {
+            buf = new byte[BUFFER_SIZE];
+        }
+        else
+        {
+            buffers.set(null);
+        }
+    }
+
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    public JSONStreamWriter beginObject() throws IOException
+    {
+        return begin('{');
+    }
+
+    public JSONStreamWriter endObject() throws IOException
+    {
+        return end('}');
+    }
+
+    public JSONStreamWriter beginArray() throws IOException
+    {
+        return begin('[');
+    }
+
+    public JSONStreamWriter endArray() throws IOException
+    {
+        return end(']');
+    }
+
+    private JSONStreamWriter begin(char c) throws IOException
+    {
+        separator();
+        if (depth == hasMember.length - 1)
+        {
+            hasMember = Arrays.copyOf(hasMember, hasMember.length * 2);
+        }
+        writeByte(c);
+        depth++;
+        hasMember[depth] = false;
+        return this;
+    }
+
+    private JSONStreamWriter end(char c) throws IOException
+    {
+        if (depth == 0)
+        {
+            throw new IllegalStateException("Misplaced " + c);
+        }
+        writeByte(c);
+        depth--;
+        return this;
+    }
+
+    /**
+     * Method to write the name of the next member of the current object.
+     * @param name The name
+     * @return This writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public JSONStreamWriter key(String name) throws IOException
+    {
+        separator();
+        writeString(name);
+        writeByte(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Method to write the name of the next member of the current object, where the name has already been quoted,
+     * escaped and followed by ':', and encoded as UTF-8.
+     * @param keyBytes The encoded key
+     * @return This writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public JSONStreamWriter key(byte[] keyBytes) throws IOException
+    {
+        separator();
+        writeBytes(keyBytes);
+        afterKey = true;
+        return this;
+    }
+
+    public JSONStreamWriter value(String value) throws IOException
+    {
+        if (value == null)
+        {
+            return nullValue();
+        }
+        separator();
+        writeString(value);
+        return this;
+    }
+
+    public JSONStreamWriter value(boolean value) throws IOException
+    {
+        separator();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JSONStreamWriter value(long value) throws IOException
+    {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Method to write a double value. JSON has no representation of non-finite numbers, so these are written as null.
+     * @param value The value
+     * @return This writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public JSONStreamWriter value(double value) throws IOException
+    {
+        if (Double.isInfinite(value) || Double.isNaN(value))
+        {
+            return nullValue();
+        }
+        separator();
+        writeAscii(JSONObject.doubleToString(value));
+        return this;
+    }
+
+    public JSONStreamWriter nullValue() throws IOException
+    {
+        separator();
+        writeBytes(NULL);
+        return this;
+    }
+
+    /**
+     * Method to write an arbitrary value, with the same conversion as used by JSONObject.toString(), so numbers and booleans
+     * are output as such, maps/collections/arrays as JSON objects/arrays, and anything else as the quoted toString().
+     * @param value The value
+     * @return This writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public JSONStreamWriter value(Object value) throws IOException
+    {
+        if (value == null || JSONObject.NULL.equals(value))
+        {
+            return nullValue();
+        }
+        else if (value instanceof String)
+        {
+            return value((String)value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            return value(((Number)value).longValue());
+        }
+        else if (value instanceof Number)
+        {
+            String str;
+            try
+            {
+                str = JSONObject.numberToString((Number)value);
+            }
+            catch (JSONException e)
+            {
+                // Non-finite number
+                return nullValue();
+            }
+            separator();
+            writeAscii(str);
+            return this;
+        }
+        else if (value instanceof Boolean)
+        {
+            return value(((Boolean)value).booleanValue());
+        }
+        else if (value instanceof JSONString)
+        {
+            String str;
+            try
+            {
+                str = ((JSONString)value).toJSONString();
+            }
+            catch (Exception e)
+            {
+                throw new IOException("Exception from toJSONString", e);
+            }
+            if (str == null)
+            {
+                throw new IOException("Bad value from toJSONString: " + str);
+            }
+            return rawValue(str);
+        }
+        else if (value instanceof JSONObject || value instanceof JSONArray)
+        {
+            return rawValue(value.toString());
+        }
+        else if (value instanceof Map)
+        {
+            beginObject();
+            Iterator<Map.Entry> entryIter = ((Map)value).entrySet().iterator();
+            while (entryIter.hasNext())
+            {
+                Map.Entry entry = entryIter.next();
+                key(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        }
+        else if (value instanceof Collection)
+        {
+            beginArray();
+            for (Object elem : (Collection)value)
+            {
+                value(elem);
+            }
+            return endArray();
+        }
+        else if (value.getClass().isArray())
+        {
+            beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++)
+            {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    /**
+     * Method to write a value that is already JSON text.
+     * @param json The JSON text
+     * @return This writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public JSONStreamWriter rawValue(String json) throws IOException
+    {
+        separator();
+        writeChars(json);
+        return this;
+    }
+
+    /**
+     * Method to write out any buffered output to the stream, and flush the stream.
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Method to write out any buffered output to the stream and release the buffer for reuse.
+     * Doesn't close the underlying stream.
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public void close() throws IOException
+    {
+        if (buf == null)
+        {
+            return;
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            buffers.set(buf);
+            buf = null;
+        }
+    }
+
+    private void separator() throws IOException
+    {
+        if (afterKey)
+        {
+            afterKey = false;
+        }
+        else
+        {
+            if (hasMember[depth])
+            {
+                writeByte(',');
+            }
+            hasMember[depth] = true;
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (pos > 0)
+        {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void writeByte(int b) throws IOException
+    {
+        if (pos == buf.length)
+        {
+            flushBuffer();
+        }
+        buf[pos++] = (byte)b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException
+    {
+        if (bytes.length > buf.length - pos)
+        {
+            flushBuffer();
+            if (bytes.length > buf.length)
+            {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void writeAscii(String str) throws IOException
+    {
+        int len = str.length();
+        for (int i = 0; i < len; i++)
+        {
+            writeByte(str.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) throws IOException
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (buf.length - pos < 20)
+        {
+            flushBuffer();
+        }
+        if (value < 0)
+        {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int numDigits = 1;
+        for (long v = value; v >= 10; v /= 10)
+        {
+            numDigits++;
+        }
+        int end = pos + numDigits;
+        for (int i = end - 1; i >= pos; i--)
+        {
+            buf[i] = (byte)('0' + (value % 10));
+            value /= 10;
+        }
+        pos = end;
+    }
+
+    /**
+     * Method to write the chars of the string in UTF-8, without any escaping.
+     * @param str The string
+     * @throws IOException If an error occurs writing to the stream
+     */
+    private void writeChars(String str) throws IOException
+    {
+        int len = str.length();
+        for (int i = 0; i < len; i++)
+        {
+            char c = str.charAt(i);
+            if (c < 0x80)
+            {
+                writeByte(c);
+            }
+            else
+            {
+                i = writeMultiByteChar(str, i, c);
+            }
+        }
+    }
+
+    /**
+     * Method to write the string quoted and escaped, in UTF-8.
+     * @param str The string
+     * @throws IOException If an error occurs writing to the stream
+     */
+    private void writeString(String str) throws IOException
+    {
+        writeByte('"');
+        int len = str.length();
+        char c = 0;
+        for (int i = 0; i < len; i++)
+        {
+            char b = c;
+            c = str.charAt(i);
+            if (isPlainAscii(c))
+            {
+                // Copy the run of ASCII chars not needing escaping straight into the buffer
+                if (pos == buf.length)
+                {
+                    flushBuffer();
+                }
+                int end = Math.min(len, i + buf.length - pos);
+                buf[pos++] = (byte)c;
+                while (i + 1 < end && isPlainAscii(str.charAt(i + 1)))
+                {
+                    c = str.charAt(++i);
+                    buf[pos++] = (byte)c;
+                }
+                continue;
+            }
+            switch (c)
+            {
+                case '\\' :
+                case '"' :
+                    writeByte('\\');
+                    writeByte(c);
+                    break;
+                case '/' :
+                    if (b == '<')
+                    {
+                        writeByte('\\');
+                    }
+                    writeByte(c);
+                    break;
+                case '\b' :
+                    writeByte('\\');
+                    writeByte('b');
+                    break;
+                case '\t' :
+                    writeByte('\\');
+                    writeByte('t');
+                    break;
+                case '\n' :
+                    writeByte('\\');
+                    writeByte('n');
+                    break;
+                case '\f' :
+                    writeByte('\\');
+                    writeByte('f');
+                    break;
+                case '\r' :
+                    writeByte('\\');
+                    writeByte('r');
+                    break;
+                default :
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100'))
+                    {
+                        writeByte('\\');
+                        writeByte('u');
+                        writeByte(HEX[(c >> 12) & 0xF]);
+                        writeByte(HEX[(c >> 8) & 0xF]);
+                        writeByte(HEX[(c >> 4) & 0xF]);
+                        writeByte(HEX[c & 0xF]);
+                    }
+                    else if (c < 0x80)
+                    {
+                        writeByte(c);
+                    }
+                    else
+                    {
+                        i = writeMultiByteChar(str, i, c);
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    private static boolean isPlainAscii(char c)
+    {
+        return c >= ' ' && c < 0x80 && c != '"' && c != '\\' && c != '/';
+    }
+
+    /**
+     * Method to write a non-ASCII char in UTF-8, combining it with the following char when a surrogate pair.
+     * @param str The string
+     * @param i Position of the char in the string
+     * @param c The char
+     * @return The position of the last char consumed
+     * @throws IOException If an error occurs writing to the stream
+     */
+    private int writeMultiByteChar(String str, int i, char c) throws IOException
+    {
+        if (c < 0x800)
+        {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1)))
+        {
+            int cp = Character.toCodePoint(c, str.charAt(i + 1));
+            writeByte(0xF0 | (cp >> 18));
+            writeByte(0x80 | ((cp >> 12) & 0x3F));
+            writeByte(0x80 | ((cp >> 6) & 0x3F));
+            writeByte(0x80 | (cp & 0x3F));
+            return i + 1;
+        }
+        else if (Character.isSurrogate(c))
+        {
+            // Unpaired surrogate, so output replacement char as the JDK encoder does
+            writeByte('?');
+        }
+        else
+        {
+            writeByte(0xE0 | (c >> 12));
+            writeByte(0x80 | ((c >> 6) & 0x3F));
+            writeByte(0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,326 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.rest.orgjson.JSONArray;
+import org.datanucleus.api.rest.orgjson.JSONException;
+import org.datanucleus.api.rest.orgjson.JSONObject;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.NullValue;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.types.converters.TypeConversionHelper;
+
+/**
+ * Keyset ("seek") cursor for paging through the objects of a candidate class.
+ * The ordering is made unique by appending any primary-key members not already specified, and the cursor holds the values
+ * of the ordering members of the last object of a page. The next page is then selected by filtering on those values,
+ * so the datastore doesn't have to skip over all preceding rows as it would with a range offset.
+ * The cursor is passed to/from the client as an opaque (base64url) token.
+ * Only supports application identity, and ordering members that are comparable and cannot be null, namely a primitive (other than
+ * boolean), or a number, String, Character or date that is part of the primary key or has null-value "exception".
+ */
+public class KeysetCursor
+{
+    private static final String PARAM_PREFIX = "keyset";
+
+    AbstractClassMetaData cmd;
+
+    AbstractMemberMetaData[] members;
+
+    boolean[] descending;
+
+    /** Values of the ordering members for the object at the cursor position, or null if at the start. */
+    Object[] values;
+
+    /**
+     * Constructor for a cursor for the specified class, using the supplied ordering.
+     * @param cmd Metadata for the candidate class
+     * @param ordering Comma-separated ordering, each being "member [asc|ascending|desc|descending]". Can be null
+     * @throws NucleusUserException if the class doesn't use application identity or an ordering member is not valid
+     */
+    public KeysetCursor(AbstractClassMetaData cmd, String ordering)
+    {
+        if (cmd.getIdentityType() != IdentityType.APPLICATION)
+        {
+            throw new NucleusUserException("Keyset cursors are only supported for classes using application identity, but " + cmd.getFullClassName() + " does not");
+        }
+        this.cmd = cmd;
+
+        List<AbstractMemberMetaData> mmds = new ArrayList<>();
+        List<Boolean> descs = new ArrayList<>();
+        if (ordering != null)
+        {
+            StringTokenizer tokeniser = new StringTokenizer(ordering, ",");
+            while (tokeniser.hasMoreTokens())
+            {
+                String[] parts = tokeniser.nextToken().trim().split("\\s+");
+                if (parts[0].length() == 0)
+                {
+                    continue;
+                }
+                boolean desc = false;
+                if (parts.length > 1)
+                {
+                    String dir = parts[1].toLowerCase();
+                    if (dir.equals("desc") || dir.equals("descending"))
+                    {
+                        desc = true;
+                    }
+                    else if (!dir.equals("asc") && !dir.equals("ascending"))
+                    {
+                        throw new NucleusUserException("Ordering direction \"" + parts[1] + "\" is not valid. Use asc or desc");
+                    }
+                }
+                mmds.add(getOrderingMember(parts[0]));
+                descs.add(desc);
+            }
+        }
+
+        // Append the PK members to make the ordering unique
+        for (int pkPosition : cmd.getPKMemberPositions())
+        {
+            AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkPosition);
+            if (!mmds.contains(pkMmd))
+            {
+                mmds.add(getOrderingMember(pkMmd.getName()));
+                descs.add(false);
+            }
+        }
+
+        members = mmds.toArray(new AbstractMemberMetaData[mmds.size()]);
+        descending = new boolean[descs.size()];
+        for (int i = 0; i < descending.length; i++)
+        {
+            descending[i] = descs.get(i);
+        }
+    }
+
+    private AbstractMemberMetaData getOrderingMember(String name)
+    {
+        AbstractMemberMetaData mmd = cmd.getMetaDataForMember(name);
+        if (mmd == null)
+        {
+            throw new NucleusUserException("Ordering member \"" + name + "\" is not a member of " + cmd.getFullClassName());
+        }
+        Class type = mmd.getType();
+        boolean valid;
+        if (type.isPrimitive())
+        {
+            valid = type != boolean.class;
+        }
+        else
+        {
+            // Reference types are only usable where the member cannot be null, since null doesn't compare with "<", ">"
+            valid = (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class ||
+                type == Double.class || type == Float.class || type == BigInteger.class || type == BigDecimal.class ||
+                type == String.class || type == Character.class || Date.class.isAssignableFrom(type)) &&
+                (mmd.isPrimaryKey() || mmd.getNullValue() == NullValue.EXCEPTION);
+        }
+        if (!valid)
+        {
+            throw new NucleusUserException("Ordering member " + mmd.getFullFieldName() + " of type " + type.getName() + " cannot be used in a keyset cursor");
+        }
+        return mmd;
+    }
+
+    /**
+     * Method to set the position of this cursor from the token returned to the client for a previous page.
+     * @param token The cursor token
+     * @throws NucleusUserException if the token is not valid for this ordering
+     */
+    public void setCursor(String token)
+    {
+        JSONArray arr;
+        try
+        {
+            arr = new JSONArray(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException | JSONException e)
+        {
+            throw new NucleusUserException("Cursor \"" + token + "\" is not valid");
+        }
+        if (arr.length() != members.length)
+        {
+            throw new NucleusUserException("Cursor \"" + token + "\" does not match the ordering of this query");
+        }
+
+        values = new Object[members.length];
+        for (int i = 0; i < members.length; i++)
+        {
+            Object val = arr.opt(i);
+            if (val == null || JSONObject.NULL.equals(val))
+            {
+                throw new NucleusUserException("Cursor \"" + token + "\" does not match the ordering of this query");
+            }
+            Class type = members[i].getType();
+            if (Date.class.isAssignableFrom(type))
+            {
+                long millis = ((Number)val).longValue();
+                if (type == java.sql.Timestamp.class)
+                {
+                    values[i] = new java.sql.Timestamp(millis);
+                }
+                else if (type == java.sql.Date.class)
+                {
+                    values[i] = new java.sql.Date(millis);
+                }
+                else if (type == java.sql.Time.class)
+                {
+                    values[i] = new java.sql.Time(millis);
+                }
+                else
+                {
+                    values[i] = new Date(millis);
+                }
+            }
+            else
+            {
+                values[i] = TypeConversionHelper.convertTo(val, type);
+            }
+        }
+    }
+
+    /**
+     * Accessor for whether the cursor is positioned after an object (i.e has a token been set).
+     * @return Whether positioned
+     */
+    public boolean hasCursor()
+    {
+        return values != null;
+    }
+
+    /**
+     * Accessor for the JDOQL ordering clause to apply to the query.
+     * @return The ordering
+     */
+    public String getOrdering()
+    {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < members.length; i++)
+        {
+            if (i > 0)
+            {
+                str.append(", ");
+            }
+            str.append(members[i].getName()).append(descending[i] ? " descending" : " ascending");
+        }
+        return str.toString();
+    }
+
+    /**
+     * Accessor for the JDOQL filter selecting the objects after the cursor position, using implicit parameters.
+     * For ordering (a, b) this is of the form <pre>(a &gt; :keyset0 || (a == :keyset0 &amp;&amp; b &gt; :keyset1))</pre>.
+     * @return The filter, or null if no cursor position is set
+     */
+    public String getFilter()
+    {
+        if (values == null)
+        {
+            return null;
+        }
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < members.length; i++)
+        {
+            if (i > 0)
+            {
+                str.append(" || (");
+                for (int j = 0; j < i; j++)
+                {
+                    str.append(members[j].getName()).append(" == :").append(PARAM_PREFIX).append(j).append(" && ");
+                }
+            }
+            else
+            {
+                str.append('(');
+            }
+            str.append(members[i].getName()).append(descending[i] ? " < :" : " > :").append(PARAM_PREFIX).append(i);
+            if (i > 0)
+            {
+                str.append(')');
+            }
+        }
+        str.append(')');
+        return str.toString();
+    }
+
+    /**
+     * Accessor for the values of the implicit parameters used by the filter.
+     * @return The parameter values keyed by name (empty if no cursor position is set)
+     */
+    public Map<String, Object> getParameters()
+    {
+        Map<String, Object> params = new HashMap<>();
+        if (values != null)
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                params.put(PARAM_PREFIX + i, values[i]);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Method to generate the cursor token for the position after the supplied (persistent) object.
+     * @param pc The persistable object, typically the last object of a page
+     * @param ec ExecutionContext
+     * @return The token
+     */
+    public String getCursorForObject(Object pc, ExecutionContext ec)
+    {
+        DNStateManager sm = ec.findStateManager(pc);
+        JSONArray arr = new JSONArray();
+        for (AbstractMemberMetaData mmd : members)
+        {
+            int fieldNumber = mmd.getAbsoluteFieldNumber();
+            if (!sm.isLoaded(fieldNumber))
+            {
+                sm.loadField(fieldNumber);
+            }
+            Object val = sm.provideField(fieldNumber);
+            if (val instanceof Date)
+            {
+                arr.put(((Date)val).getTime());
+            }
+            else if (val instanceof Character)
+            {
+                arr.put(val.toString());
+            }
+            else
+            {
+                arr.put(val);
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(arr.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,578 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Wrapper for the response of a request being processed asynchronously, so that the output is written to the client using
+ * non-blocking I/O. The thread processing the request writes to the output stream/writer of this wrapper as normal, and the
+ * output is passed in chunks through a bounded queue to a WriteListener on the container's output stream, which writes them
+ * whenever the container says the stream is ready. When the queue is full the processing thread waits, so a slow client
+ * can't cause unbounded buffering. Once processing has finished and all output is written, the AsyncContext is completed.
+ * <p>
+ * The status and headers set by the processing thread are held by this wrapper rather than set on the container response,
+ * since the container may be writing to the response at the same time. They are applied to the container response, under
+ * the same lock as the writing of the output, just before the first output is written (or the request is completed). The
+ * response is then committed, and any further attempt to change the status or headers (or reset) throws an
+ * IllegalStateException.
+ */
+public class NonBlockingResponseWrapper extends HttpServletResponseWrapper implements WriteListener, AsyncListener
+{
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final int MAX_QUEUED_CHUNKS = 64;
+
+    private final AsyncContext asyncCtx;
+
+    private final ServletOutputStream containerOut;
+
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+
+    private final ChunkedOutputStream out = new ChunkedOutputStream();
+
+    private PrintWriter writer;
+
+    /** Whether the container output stream can be written to without blocking. Only set true by the container. */
+    private boolean writePossible = false;
+
+    /** Whether all output has been queued. */
+    private volatile boolean closed = false;
+
+    private boolean completed = false;
+
+    /** Whether the status and headers have been applied to the container response. */
+    private volatile boolean committed = false;
+
+    /** Status to apply to the container response, or 0 if not set. */
+    private int status = 0;
+
+    /** Headers to apply to the container response, keyed by the (case-insensitive) name. */
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /** Character encoding to apply to the container response, or null if not set. */
+    private String characterEncoding;
+
+    /** Any failure writing to the client. */
+    private volatile Throwable failure;
+
+    /**
+     * Constructor, registering as the WriteListener for the container output stream of the async request.
+     * @param resp The container response
+     * @param asyncCtx The AsyncContext for the request
+     * @throws IOException if an error occurs getting the output stream
+     */
+    public NonBlockingResponseWrapper(HttpServletResponse resp, AsyncContext asyncCtx) throws IOException
+    {
+        super(resp);
+        this.asyncCtx = asyncCtx;
+        this.containerOut = resp.getOutputStream();
+        asyncCtx.addListener(this);
+        containerOut.setWriteListener(this);
+    }
+
+    public ServletOutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    public synchronized PrintWriter getWriter() throws IOException
+    {
+        if (writer == null)
+        {
+            writer = new PrintWriter(new OutputStreamWriter(out, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    public void flushBuffer() throws IOException
+    {
+        if (writer != null)
+        {
+            writer.flush();
+        }
+        out.flush();
+    }
+
+    public synchronized void resetBuffer()
+    {
+        checkNotCommitted();
+        out.count = 0;
+        queue.clear();
+
+        // Discard any chars buffered in the writer (not yet encoded to the output stream) by creating a new writer when next needed
+        writer = null;
+    }
+
+    public synchronized void reset()
+    {
+        resetBuffer();
+        status = 0;
+        headers.clear();
+        characterEncoding = null;
+    }
+
+    public boolean isCommitted()
+    {
+        return committed;
+    }
+
+    public synchronized void setStatus(int sc)
+    {
+        checkNotCommitted();
+        status = sc;
+    }
+
+    @SuppressWarnings("deprecation")
+    public synchronized void setStatus(int sc, String msg)
+    {
+        setStatus(sc);
+    }
+
+    public synchronized void sendError(int sc) throws IOException
+    {
+        resetBuffer();
+        setStatus(sc);
+    }
+
+    public synchronized void sendError(int sc, String msg) throws IOException
+    {
+        sendError(sc);
+    }
+
+    public synchronized void sendRedirect(String location) throws IOException
+    {
+        resetBuffer();
+        setStatus(SC_FOUND);
+        setHeader("Location", location);
+    }
+
+    public synchronized int getStatus()
+    {
+        return (status != 0) ? status : SC_OK;
+    }
+
+    public synchronized void setHeader(String name, String value)
+    {
+        checkNotCommitted();
+        if (value == null)
+        {
+            headers.remove(name);
+        }
+        else
+        {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    public synchronized void addHeader(String name, String value)
+    {
+        checkNotCommitted();
+        if (value != null)
+        {
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+    }
+
+    public void setIntHeader(String name, int value)
+    {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value)
+    {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setDateHeader(String name, long date)
+    {
+        setHeader(name, formatDate(date));
+    }
+
+    public void addDateHeader(String name, long date)
+    {
+        addHeader(name, formatDate(date));
+    }
+
+    public void setContentType(String type)
+    {
+        setHeader("Content-Type", type);
+    }
+
+    public void setContentLength(int len)
+    {
+        setHeader("Content-Length", String.valueOf(len));
+    }
+
+    public void setContentLengthLong(long len)
+    {
+        setHeader("Content-Length", String.valueOf(len));
+    }
+
+    public synchronized void setCharacterEncoding(String charset)
+    {
+        checkNotCommitted();
+        characterEncoding = charset;
+    }
+
+    public synchronized boolean containsHeader(String name)
+    {
+        return headers.containsKey(name);
+    }
+
+    public synchronized String getHeader(String name)
+    {
+        List<String> values = headers.get(name);
+        return (values != null) ? values.get(0) : null;
+    }
+
+    public synchronized Collection<String> getHeaders(String name)
+    {
+        List<String> values = headers.get(name);
+        return (values != null) ? new ArrayList<>(values) : Collections.<String>emptyList();
+    }
+
+    public synchronized Collection<String> getHeaderNames()
+    {
+        return new ArrayList<>(headers.keySet());
+    }
+
+    public synchronized String getContentType()
+    {
+        return getHeader("Content-Type");
+    }
+
+    public synchronized String getCharacterEncoding()
+    {
+        if (characterEncoding != null)
+        {
+            return characterEncoding;
+        }
+        String contentType = getHeader("Content-Type");
+        if (contentType != null)
+        {
+            int pos = contentType.toLowerCase().indexOf("charset=");
+            if (pos >= 0)
+            {
+                String charset = contentType.substring(pos + 8).trim();
+                int end = charset.indexOf(';');
+                return ((end >= 0) ? charset.substring(0, end) : charset).replace("\"", "").trim();
+            }
+        }
+        return super.getCharacterEncoding();
+    }
+
+    private void checkNotCommitted()
+    {
+        if (committed)
+        {
+            throw new IllegalStateException("Response of asynchronous request is already committed");
+        }
+    }
+
+    private static String formatDate(long date)
+    {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * Method to apply the status and headers to the container response, committing this response. Must be called with
+     * the lock held, before anything is written to the container output stream.
+     */
+    private void commit()
+    {
+        if (committed)
+        {
+            return;
+        }
+        committed = true;
+        HttpServletResponse resp = (HttpServletResponse)getResponse();
+        if (status != 0)
+        {
+            resp.setStatus(status);
+        }
+        if (characterEncoding != null)
+        {
+            resp.setCharacterEncoding(characterEncoding);
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet())
+        {
+            boolean first = true;
+            for (String value : entry.getValue())
+            {
+                if (first)
+                {
+                    resp.setHeader(entry.getKey(), value);
+                    first = false;
+                }
+                else
+                {
+                    resp.addHeader(entry.getKey(), value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to call when processing of the request has finished, to write out any remaining output and then complete
+     * the AsyncContext.
+     */
+    public void finish()
+    {
+        try
+        {
+            if (writer != null)
+            {
+                writer.flush();
+            }
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            // Already recorded as the failure
+        }
+        closed = true;
+        drain();
+    }
+
+    /* (non-Javadoc)
+     * @see javax.servlet.WriteListener#onWritePossible()
+     */
+    public void onWritePossible() throws IOException
+    {
+        synchronized (this)
+        {
+            writePossible = true;
+        }
+        drain();
+    }
+
+    /* (non-Javadoc)
+     * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+     */
+    public void onError(Throwable t)
+    {
+        RestServlet.LOGGER_REST.debug("Exception writing response asynchronously", t);
+        fail(t);
+    }
+
+    public void onTimeout(AsyncEvent event) throws IOException
+    {
+        RestServlet.LOGGER_REST.warn("Asynchronous request timed out");
+        synchronized (this)
+        {
+            if (!committed)
+            {
+                // Discard whatever the processing thread has set so far
+                status = 503;
+                headers.clear();
+                characterEncoding = null;
+                commit();
+            }
+        }
+        fail(new IOException("Asynchronous request timed out"));
+    }
+
+    public void onError(AsyncEvent event) throws IOException
+    {
+        fail(event.getThrowable());
+    }
+
+    public void onComplete(AsyncEvent event) throws IOException
+    {
+    }
+
+    public void onStartAsync(AsyncEvent event) throws IOException
+    {
+    }
+
+    private void fail(Throwable t)
+    {
+        failure = (t != null) ? t : new IOException("Asynchronous request failed");
+        queue.clear();
+        complete();
+    }
+
+    private synchronized void complete()
+    {
+        if (!completed)
+        {
+            completed = true;
+            try
+            {
+                asyncCtx.complete();
+            }
+            catch (IllegalStateException ise)
+            {
+                // Already completed by the container
+            }
+        }
+    }
+
+    /**
+     * Method to write queued chunks to the container output stream for as long as it is ready, and to complete the request
+     * when all output is written. Called by the container when the stream becomes ready, and by the processing thread when
+     * a chunk is queued.
+     */
+    private synchronized void drain()
+    {
+        if (completed)
+        {
+            return;
+        }
+        try
+        {
+            while (writePossible)
+            {
+                if (!containerOut.isReady())
+                {
+                    // Container will call onWritePossible when ready again
+                    writePossible = false;
+                    return;
+                }
+                byte[] chunk = queue.poll();
+                if (chunk == null)
+                {
+                    if (closed && queue.isEmpty())
+                    {
+                        commit();
+                        complete();
+                    }
+                    return;
+                }
+                commit();
+                containerOut.write(chunk);
+            }
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * OutputStream for the processing thread, collecting output into chunks for the queue.
+     */
+    private class ChunkedOutputStream extends ServletOutputStream
+    {
+        byte[] buf = new byte[CHUNK_SIZE];
+        int count = 0;
+
+        public void write(int b) throws IOException
+        {
+            if (count == buf.length)
+            {
+                flushChunk();
+            }
+            buf[count++] = (byte)b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (count == buf.length)
+                {
+                    flushChunk();
+                }
+                int num = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, num);
+                count += num;
+                off += num;
+                len -= num;
+            }
+        }
+
+        public void flush() throws IOException
+        {
+            if (count > 0)
+            {
+                flushChunk();
+            }
+        }
+
+        public void close() throws IOException
+        {
+            flush();
+        }
+
+        private void flushChunk() throws IOException
+        {
+            byte[] chunk = new byte[count];
+            System.arraycopy(buf, 0, chunk, 0, count);
+            count = 0;
+            try
+            {
+                while (!queue.offer(chunk, 1, TimeUnit.SECONDS))
+                {
+                    checkFailure();
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted writing response");
+            }
+            checkFailure();
+            drain();
+        }
+
+        private void checkFailure() throws IOException
+        {
+            if (failure != null)
+            {
+                throw (failure instanceof IOException) ? (IOException)failure : new IOException(failure);
+            }
+        }
+
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        public void setWriteListener(WriteListener writeListener)
+        {
+            throw new IllegalStateException("Output of an asynchronous REST request is already non-blocking");
+        }
+    }
+}
\ No newline at end of file
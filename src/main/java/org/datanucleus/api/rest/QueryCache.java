@@ -0,0 +1,222 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the queries (JDOQL/JPQL) submitted to the REST API, keyed by the normalised query string.
+ * The generic compilations themselves are held by the DataNucleus QueryManager compilation cache (see the PMF property
+ * "datanucleus.cache.queryCompilation.type"), which is keyed by the query string, and is used automatically when the query
+ * is executed. What this adds is that queries are created from the normalised string, so strings differing only in
+ * whitespace share the same compilation there, together with statistics of how often submitted query strings are repeated.
+ * These statistics are of the query strings submitted, not of compilations reused, since the QueryManager cache may have
+ * discarded (or not cached) the compilation of a repeated string.
+ * Clients should use parameters (rather than literals) for values that vary, so that the query string doesn't change.
+ */
+public class QueryCache
+{
+    /**
+     * Cached state for a query string.
+     */
+    public static class CachedQuery
+    {
+        final String language;
+        final String queryString;
+
+        CachedQuery(String language, String queryString)
+        {
+            this.language = language;
+            this.queryString = queryString;
+        }
+
+        public String getLanguage()
+        {
+            return language;
+        }
+
+        /**
+         * Accessor for the (normalised) query string, for use when creating the query.
+         * @return The query string
+         */
+        public String getQueryString()
+        {
+            return queryString;
+        }
+    }
+
+    private final int maxSize;
+
+    private final Map<String, CachedQuery> queries;
+
+    /** Number of queries whose (normalised) string was already held. */
+    private final AtomicLong repeated = new AtomicLong();
+
+    /** Number of queries whose (normalised) string was not held, so was added. */
+    private final AtomicLong added = new AtomicLong();
+
+    /** Number of query strings evicted to keep within the max size. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param maxSize Maximum number of queries to hold
+     */
+    public QueryCache(final int maxSize)
+    {
+        this.maxSize = maxSize;
+        this.queries = new LinkedHashMap<String, CachedQuery>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 2546297826471187613L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest)
+            {
+                if (size() > QueryCache.this.maxSize)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Method to get the cached state for the specified query, adding an entry if not yet present.
+     * @param language Query language
+     * @param queryString The query string
+     * @return The cached query
+     */
+    public CachedQuery getQuery(String language, String queryString)
+    {
+        String normalisedQuery = normalise(queryString);
+        String key = language + ' ' + normalisedQuery;
+        synchronized (queries)
+        {
+            CachedQuery cachedQuery = queries.get(key);
+            if (cachedQuery != null)
+            {
+                repeated.incrementAndGet();
+                return cachedQuery;
+            }
+
+            added.incrementAndGet();
+            cachedQuery = new CachedQuery(language, normalisedQuery);
+            queries.put(key, cachedQuery);
+            return cachedQuery;
+        }
+    }
+
+    /**
+     * Method to clear out all cached queries, for example when the metadata has changed.
+     */
+    public void clear()
+    {
+        synchronized (queries)
+        {
+            queries.clear();
+        }
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public int getSize()
+    {
+        synchronized (queries)
+        {
+            return queries.size();
+        }
+    }
+
+    /**
+     * Accessor for the number of queries submitted with a string that was already held (after normalisation).
+     * @return The number of repeated query strings
+     */
+    public long getRepeatedCount()
+    {
+        return repeated.get();
+    }
+
+    /**
+     * Accessor for the number of queries submitted with a string that wasn't held (after normalisation).
+     * @return The number of added query strings
+     */
+    public long getAddedCount()
+    {
+        return added.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public String toString()
+    {
+        return "QueryCache[size=" + getSize() + " max=" + maxSize + " repeated=" + repeated.get() + " added=" + added.get() + " evictions=" + evictions.get() + "]";
+    }
+
+    /**
+     * Method to normalise a query string, so that strings differing only in whitespace map to the same query.
+     * Trims the string and collapses all runs of whitespace outside of string literals to a single space.
+     * @param queryString The query string
+     * @return The normalised string
+     */
+    public static String normalise(String queryString)
+    {
+        int len = queryString.length();
+        StringBuilder str = new StringBuilder(len);
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < len; i++)
+        {
+            char c = queryString.charAt(i);
+            if (quote != 0)
+            {
+                str.append(c);
+                if (c == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if (Character.isWhitespace(c))
+            {
+                pendingSpace = str.length() > 0;
+            }
+            else
+            {
+                if (pendingSpace)
+                {
+                    str.append(' ');
+                    pendingSpace = false;
+                }
+                if (c == '"' || c == '\'')
+                {
+                    quote = c;
+                }
+                str.append(c);
+            }
+        }
+        return str.toString();
+    }
+}
\ No newline at end of file
@@ -17,11 +17,14 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.api.rest;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,15 +35,21 @@ import org.datanucleus.ExecutionContext;
 import org.datanucleus.NucleusContext;
 import org.datanucleus.PersistenceNucleusContext;
 import org.datanucleus.api.rest.fieldmanager.FromJSONFieldManager;
+import org.datanucleus.api.rest.fieldmanager.SerialisationContext;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan;
 import org.datanucleus.api.rest.fieldmanager.ToJSONFieldManager;
+import org.datanucleus.api.rest.fieldmanager.ToJSONStreamFieldManager;
 import org.datanucleus.api.rest.jsonobject.GoogleAppEngineKeyHandler;
 import org.datanucleus.api.rest.jsonobject.GoogleAppEngineUserHandler;
 import org.datanucleus.api.rest.jsonobject.UserTypeJSONHandler;
 import org.datanucleus.api.rest.orgjson.JSONArray;
 import org.datanucleus.api.rest.orgjson.JSONException;
+import org.datanucleus.api.rest.orgjson.JSONKeyDictionary;
 import org.datanucleus.api.rest.orgjson.JSONObject;
 import org.datanucleus.exceptions.ClassNotResolvedException;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.IdentityType;
@@ -63,6 +72,18 @@ public class RESTUtils
      * @return The JSONObject
      */
     public static JSONArray getJSONArrayFromCollection(final Collection coll, ExecutionContext ec)
+    {
+        return getJSONArrayFromCollection(coll, ec, new SerialisationContext(0, ec));
+    }
+
+    /**
+     * Method to convert the provided POJO into its equivalent JSONObject.
+     * @param coll Collection of POJOs
+     * @param ec ExecutionContext
+     * @param ctx Serialisation context for the response
+     * @return The JSONObject
+     */
+    public static JSONArray getJSONArrayFromCollection(final Collection coll, ExecutionContext ec, SerialisationContext ctx)
     {
         JSONArray arr = new JSONArray();
         int i = 0;
@@ -70,7 +91,7 @@ public class RESTUtils
         {
             try
             {
-                arr.put(i++, getJSONObjectFromPOJO(elem, ec));
+                arr.put(i++, getJSONObjectFromPOJO(elem, ec, ctx));
             }
             catch (JSONException e)
             {
@@ -87,76 +108,205 @@ public class RESTUtils
      */
     public static JSONObject getJSONObjectFromPOJO(final Object obj, ExecutionContext ec)
     {
-        ClassLoaderResolver clr = ec.getClassLoaderResolver();
-        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(obj.getClass(), clr);
+        return getJSONObjectFromPOJO(obj, ec, new SerialisationContext(0, ec));
+    }
+
+    /**
+     * Method to convert the provided POJO into its equivalent JSONObject.
+     * If the object was already output in this context, or is beyond its max depth, then a reference to the object
+     * (with just "class" and "_id") is returned.
+     * @param obj The object
+     * @param ec ExecutionContext
+     * @param ctx Serialisation context for the response
+     * @return The JSONObject
+     */
+    public static JSONObject getJSONObjectFromPOJO(final Object obj, ExecutionContext ec, SerialisationContext ctx)
+    {
+        // Use the metadata from the StateManager rather than looking it up for each object
+        DNStateManager sm = ec.findStateManager(obj);
+        AbstractClassMetaData cmd = sm.getClassMetaData();
 
         // Create JSONObject
         JSONObject jsonobj = new JSONObject();
+        if (!ctx.startObject(obj))
+        {
+            try
+            {
+                jsonobj.put("class", cmd.getFullClassName());
+                jsonobj.put("_id", getReferenceIdForObject(obj, cmd, ec));
+            }
+            catch (JSONException e)
+            {
+            }
+            return jsonobj;
+        }
+
         try
         {
-            jsonobj.put("class", cmd.getFullClassName());
-            if (cmd.getIdentityType() == IdentityType.DATASTORE)
+            try
             {
-                jsonobj.put("_id", IdentityUtils.getTargetKeyForDatastoreIdentity(ec.getApiAdapter().getIdForObject(obj)));
+                jsonobj.put("class", cmd.getFullClassName());
+                if (cmd.getIdentityType() == IdentityType.DATASTORE)
+                {
+                    jsonobj.put("_id", IdentityUtils.getTargetKeyForDatastoreIdentity(ec.getApiAdapter().getIdForObject(obj)));
+                }
+                Object version = ec.getApiAdapter().getVersionForObject(obj);
+                if (version != null)
+                {
+                    jsonobj.put("_version", version);
+                }
             }
-            if (ec.getApiAdapter().getVersionForObject(obj) != null)
+            catch (JSONException e)
             {
-                jsonobj.put("_version", ec.getApiAdapter().getVersionForObject(obj));
             }
+
+            // Copy all FetchPlan fields into the object
+            FieldManager fm = new ToJSONFieldManager(jsonobj, cmd, ec, ctx);
+            sm.provideFields(ec.getFetchPlan().getFetchPlanForClass(cmd).getMemberNumbers(), fm);
         }
-        catch (JSONException e)
+        finally
         {
+            ctx.endObject();
         }
 
-        // Copy all FetchPlan fields into the object
+        return jsonobj;
+    }
+
+    /**
+     * Method to write the provided POJO as a JSON object direct to the supplied writer, with the same content as
+     * {@link #getJSONObjectFromPOJO(Object, ExecutionContext)} but without creating a JSONObject.
+     * @param obj The object
+     * @param ec ExecutionContext
+     * @param writer The writer
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public static void writeJSONObjectFromPOJO(final Object obj, ExecutionContext ec, JSONStreamWriter writer) throws IOException
+    {
+        writeJSONObjectFromPOJO(obj, ec, writer, new SerialisationContext(0, ec));
+    }
+
+    /**
+     * Method to write the provided POJO as a JSON object direct to the supplied writer, with the same content as
+     * {@link #getJSONObjectFromPOJO(Object, ExecutionContext, SerialisationContext)} but without creating a JSONObject.
+     * @param obj The object
+     * @param ec ExecutionContext
+     * @param writer The writer
+     * @param ctx Serialisation context for the response
+     * @throws IOException If an error occurs writing to the stream
+     */
+    public static void writeJSONObjectFromPOJO(final Object obj, ExecutionContext ec, JSONStreamWriter writer, SerialisationContext ctx)
+    throws IOException
+    {
         DNStateManager sm = ec.findStateManager(obj);
-        FieldManager fm = new ToJSONFieldManager(jsonobj, cmd, ec);
-        sm.provideFields(ec.getFetchPlan().getFetchPlanForClass(cmd).getMemberNumbers(), fm);
+        AbstractClassMetaData cmd = sm.getClassMetaData();
 
-        return jsonobj;
+        writer.beginObject();
+        writer.key("class").value(cmd.getFullClassName());
+        if (!ctx.startObject(obj))
+        {
+            writer.key("_id").value(getReferenceIdForObject(obj, cmd, ec));
+            writer.endObject();
+            return;
+        }
+
+        try
+        {
+            if (cmd.getIdentityType() == IdentityType.DATASTORE)
+            {
+                writer.key("_id").value(IdentityUtils.getTargetKeyForDatastoreIdentity(ec.getApiAdapter().getIdForObject(obj)));
+            }
+            Object version = ec.getApiAdapter().getVersionForObject(obj);
+            if (version != null)
+            {
+                writer.key("_version").value(version);
+            }
+
+            // Write all FetchPlan fields
+            FieldManager fm = new ToJSONStreamFieldManager(writer, cmd, ec, ctx);
+            sm.provideFields(ec.getFetchPlan().getFetchPlanForClass(cmd).getMemberNumbers(), fm);
+        }
+        finally
+        {
+            ctx.endObject();
+        }
+        writer.endObject();
     }
 
     /**
-     * Method to convert the provided JSONObject into its equivalent object.
-     * If it represents a POJO and the POJO is persistent then retrieves it and superimposes the JSONObject values.
-     * If it represents a POJO and the POJO is not yet persistent then creates it with the JSONObject values.
-     * Also allows some specific non-persistable object types.
-     * Throws {@link ClassNotResolvedException} when the class is not found.
-     * Throws {@link JDOFatalUserException} if other error occurred.
-     * @param jsonobj JSONObject
-     * @param className Name of the class
+     * Convenience accessor for the "_id" value used in a reference to a persistable object. This is the key for datastore
+     * or single-field identity, otherwise the string form of the identity (as used in a URL).
+     * @param obj The object
+     * @param cmd Metadata for the class of the object
      * @param ec ExecutionContext
-     * @return The Object being represented
+     * @return The id value
      */
-    public static Object getObjectFromJSONObject(final JSONObject jsonobj, String className, ExecutionContext ec)
+    private static Object getReferenceIdForObject(Object obj, AbstractClassMetaData cmd, ExecutionContext ec)
     {
-        ClassLoaderResolver clr = ec.getClassLoaderResolver();
-        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForEntityName(className);
-        Class cls = null;
-        if (cmd != null)
+        Object id = ec.getApiAdapter().getIdForObject(obj);
+        if (cmd.getIdentityType() == IdentityType.DATASTORE)
         {
-            cls = clr.classForName(cmd.getFullClassName(), true);
+            return IdentityUtils.getTargetKeyForDatastoreIdentity(id);
         }
-        else
+        else if (IdentityUtils.isSingleFieldIdentity(id))
         {
-            cls = clr.classForName(className, true);
-            cmd = ec.getMetaDataManager().getMetaDataForClass(cls, clr);
+            return IdentityUtils.getTargetKeyForSingleFieldIdentity(id);
         }
+        return (id != null) ? id.toString() : null;
+    }
 
-        if (cmd == null)
+    /**
+     * Method to return the absolute positions of the (non-PK) members of the class that have a value in the JSONObject.
+     * @param jsonobj JSONObject
+     * @param cmd Metadata for the class
+     * @return The member positions
+     */
+    public static int[] getMemberPositionsForJSONObject(final JSONObject jsonobj, AbstractClassMetaData cmd)
+    {
+        return getMemberPositionsForJSONObject(jsonobj, cmd, null);
+    }
+
+    /**
+     * Method to return the absolute positions of the (non-PK) members of the class that have a value in the JSONObject,
+     * using the key dictionary of the class (see {@link SerialisationPlan#getKeyDictionary()}) to map the keys.
+     * @param jsonobj JSONObject
+     * @param cmd Metadata for the class
+     * @param keyDictionary Key dictionary of the class (or null to look up the metadata)
+     * @return The member positions
+     */
+    public static int[] getMemberPositionsForJSONObject(final JSONObject jsonobj, AbstractClassMetaData cmd, JSONKeyDictionary keyDictionary)
+    {
+        int[] positions = new int[jsonobj.length()];
+        int num = 0;
+        Iterator keyIter = jsonobj.keys();
+        while (keyIter.hasNext())
         {
-            // Non-persistable object (special cases)
-            return getNonPersistableObjectFromJSONObject(jsonobj, cls, ec.getNucleusContext());
+            String key = (String)keyIter.next();
+            int position = (keyDictionary != null) ? keyDictionary.getNumber(key) : cmd.getAbsolutePositionOfMember(key);
+            if (position >= 0 && !cmd.getMetaDataForManagedMemberAtAbsolutePosition(position).isPrimaryKey())
+            {
+                positions[num++] = position;
+            }
         }
+        return (num == positions.length) ? positions : Arrays.copyOf(positions, num);
+    }
 
-        // Get the identity of the object, then find the object copying the field values in
+    /**
+     * Method to return the identity of the object of the specified class represented by the JSONObject.
+     * For application identity this uses the values of the PK members, and for datastore identity the "_id" property.
+     * @param jsonobj JSONObject
+     * @param cmd Metadata for the class
+     * @param ec ExecutionContext
+     * @return The identity, or null if not specified
+     */
+    public static Object getIdentityForJSONObject(final JSONObject jsonobj, AbstractClassMetaData cmd, ExecutionContext ec)
+    {
         Object id = null;
         if (cmd.getIdentityType() == IdentityType.APPLICATION)
         {
             final FieldManager fm = new FromJSONFieldManager(jsonobj, cmd, ec);
             try
             {
-                id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, cls, false, fm);
+                id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, ec.getClassLoaderResolver().classForName(cmd.getFullClassName()), false, fm);
             }
             catch (NucleusException ne)
             {
@@ -170,11 +320,11 @@ public class RESTUtils
             {
                 if (MetaDataUtils.getTypeOfDatastoreIdentity(cmd.getBaseDatastoreIdentityMetaData()) == String.class)
                 {
-                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(className, jsonobj.getString("_id"));
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), jsonobj.getString("_id"));
                 }
                 else
                 {
-                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(className, jsonobj.getLong("_id"));
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), jsonobj.getLong("_id"));
                 }
             }
             catch (JSONException e)
@@ -183,6 +333,95 @@ public class RESTUtils
             }
         }
 
+        return id;
+    }
+
+    /**
+     * Method to convert the provided JSONObject into its equivalent object.
+     * If it represents a POJO and the POJO is persistent then retrieves it and superimposes the JSONObject values.
+     * If it represents a POJO and the POJO is not yet persistent then creates it with the JSONObject values.
+     * Also allows some specific non-persistable object types.
+     * Throws {@link ClassNotResolvedException} when the class is not found.
+     * Throws {@link JDOFatalUserException} if other error occurred.
+     * @param jsonobj JSONObject
+     * @param className Name of the class
+     * @param ec ExecutionContext
+     * @return The Object being represented
+     */
+    public static Object getObjectFromJSONObject(final JSONObject jsonobj, String className, ExecutionContext ec)
+    {
+        return getObjectFromJSONObject(jsonobj, className, ec, false);
+    }
+
+    /**
+     * Method to convert the provided JSONObject into its equivalent object, optionally as a partial update (JSON Merge Patch).
+     * With a partial update the object must already be persistent, and only the members whose names are keys in the JSONObject
+     * are replaced (a null value setting the member to null, or being rejected with a NucleusUserException for a primitive
+     * member), so only those members are made dirty. Any related object
+     * provided as a nested JSONObject is converted as a full object.
+     * Throws {@link NucleusObjectNotFoundException} when a partial update and the object is not persistent.
+     * @param jsonobj JSONObject
+     * @param className Name of the class
+     * @param ec ExecutionContext
+     * @param patch Whether this is a partial update
+     * @return The Object being represented
+     */
+    public static Object getObjectFromJSONObject(final JSONObject jsonobj, String className, ExecutionContext ec, boolean patch)
+    {
+        return getObjectFromJSONObject(jsonobj, className, ec, patch, null);
+    }
+
+    /**
+     * Method to convert the provided JSONObject into its equivalent object, optionally as a partial update, as
+     * {@link #getObjectFromJSONObject(JSONObject, String, ExecutionContext, boolean)}. With a partial update the members
+     * to replace are found from the keys using the key dictionary of the class, when provided.
+     * @param jsonobj JSONObject
+     * @param className Name of the class
+     * @param ec ExecutionContext
+     * @param patch Whether this is a partial update
+     * @param keyDictionary Key dictionary of the class (see {@link SerialisationPlan#getKeyDictionary()}), or null
+     * @return The Object being represented
+     */
+    public static Object getObjectFromJSONObject(final JSONObject jsonobj, String className, ExecutionContext ec, boolean patch,
+            JSONKeyDictionary keyDictionary)
+    {
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForEntityName(className);
+        Class cls = null;
+        if (cmd != null)
+        {
+            cls = clr.classForName(cmd.getFullClassName(), true);
+        }
+        else
+        {
+            cls = clr.classForName(className, true);
+            cmd = ec.getMetaDataManager().getMetaDataForClass(cls, clr);
+        }
+
+        if (cmd == null)
+        {
+            if (patch)
+            {
+                throw new NucleusUserException("Class " + className + " is not persistable so cannot be patched");
+            }
+            // Non-persistable object (special cases)
+            return getNonPersistableObjectFromJSONObject(jsonobj, cls, ec.getNucleusContext());
+        }
+
+        // Get the identity of the object, then find the object copying the field values in
+        Object id = getIdentityForJSONObject(jsonobj, cmd, ec);
+        if (patch)
+        {
+            if (id == null)
+            {
+                throw new NucleusObjectNotFoundException("No identity specified for object of type " + cmd.getFullClassName() + " to patch");
+            }
+            Object pc = ec.findObject(id, true, false, cmd.getFullClassName());
+            DNStateManager pcSM = ec.findStateManager(pc);
+            FieldManager fm2 = new FromJSONFieldManager(jsonobj, cmd, pcSM, true);
+            pcSM.replaceFields(getMemberPositionsForJSONObject(jsonobj, cmd, keyDictionary), fm2);
+            return pc;
+        }
         if (id != null)
         {
             try
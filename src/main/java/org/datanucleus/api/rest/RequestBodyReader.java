@@ -0,0 +1,282 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Reader for the body of a request, decoding the request InputStream incrementally so that the body can be parsed
+ * (e.g by a JSONTokener) without first being copied into a String. The body doesn't need to have a known length, and
+ * an optional limit can be set on the number of bytes read. The char buffer is taken from a per-thread pool and returned
+ * on close. Supports mark/reset, so it is used directly by JSONTokener rather than being wrapped in a BufferedReader.
+ */
+public class RequestBodyReader extends Reader
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Buffer released by the last reader closed on this thread. */
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<>();
+
+    private final LimitedInputStream in;
+
+    private final Reader decoder;
+
+    private char[] buf;
+
+    /** Position of the next char to read in the buffer. */
+    private int pos = 0;
+
+    /** Number of valid chars in the buffer. */
+    private int count = 0;
+
+    /** Position of the mark in the buffer, or -1 if not set. */
+    private int markPos = -1;
+
+    /**
+     * Constructor.
+     * @param in The request stream
+     * @param charset Charset of the body
+     * @param maxBytes Maximum number of bytes to read from the stream (or 0 for no limit)
+     */
+    public RequestBodyReader(InputStream in, Charset charset, long maxBytes)
+    {
+        this.in = new LimitedInputStream(in, maxBytes);
+        this.decoder = new InputStreamReader(this.in, charset);
+        this.buf = buffers.get();
+        if (buf == null)
+        {
+            buf = new char[BUFFER_SIZE];
+        }
+        else
+        {
+            buffers.set(null);
+        }
+    }
+
+    /**
+     * Accessor for whether reading stopped because the body exceeded the maximum size.
+     * @return Whether the limit was exceeded
+     */
+    public boolean isLimitExceeded()
+    {
+        return in.exceeded;
+    }
+
+    /**
+     * Method to check if there is no (more) content, ignoring whitespace.
+     * @return Whether the remainder of the body is empty
+     * @throws IOException if an error occurs reading the body
+     */
+    public boolean isEmpty() throws IOException
+    {
+        while (true)
+        {
+            if (pos >= count && !fill())
+            {
+                return true;
+            }
+            if (!Character.isWhitespace(buf[pos]))
+            {
+                return false;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Method to return the next char of the body without consuming it.
+     * @return The next char, or -1 if at the end of the body
+     * @throws IOException if an error occurs reading the body
+     */
+    public int peek() throws IOException
+    {
+        if (pos >= count && !fill())
+        {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    /**
+     * Method to read the remainder of the body into a String.
+     * @return The body
+     * @throws IOException if an error occurs reading the body
+     */
+    public String readFully() throws IOException
+    {
+        StringBuilder str = new StringBuilder();
+        while (pos < count || fill())
+        {
+            str.append(buf, pos, count - pos);
+            pos = count;
+        }
+        return str.toString();
+    }
+
+    /**
+     * Method to read more chars into the buffer, retaining any marked chars.
+     * @return Whether any chars were read (false if at end of the body)
+     * @throws IOException if an error occurs reading the body
+     */
+    private boolean fill() throws IOException
+    {
+        if (markPos < 0)
+        {
+            pos = 0;
+            count = 0;
+        }
+        else
+        {
+            // Keep the chars from the mark onwards, growing the buffer if necessary
+            int marked = count - markPos;
+            if (markPos > 0)
+            {
+                System.arraycopy(buf, markPos, buf, 0, marked);
+            }
+            else if (marked == buf.length)
+            {
+                char[] newBuf = new char[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, marked);
+                buf = newBuf;
+            }
+            markPos = 0;
+            pos = marked;
+            count = marked;
+        }
+
+        int num = decoder.read(buf, count, buf.length - count);
+        if (num <= 0)
+        {
+            return false;
+        }
+        count += num;
+        return true;
+    }
+
+    public int read() throws IOException
+    {
+        if (pos >= count && !fill())
+        {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (pos >= count && !fill())
+        {
+            return -1;
+        }
+        int num = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, cbuf, off, num);
+        pos += num;
+        return num;
+    }
+
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    /**
+     * Mark the current position. The read-ahead limit is ignored, since the buffer is grown as necessary to retain all
+     * chars after the mark.
+     * @param readAheadLimit Not used
+     */
+    public void mark(int readAheadLimit)
+    {
+        markPos = pos;
+    }
+
+    public void reset() throws IOException
+    {
+        if (markPos < 0)
+        {
+            throw new IOException("Stream not marked");
+        }
+        pos = markPos;
+    }
+
+    public void close() throws IOException
+    {
+        if (buf != null)
+        {
+            if (buf.length == BUFFER_SIZE)
+            {
+                buffers.set(buf);
+            }
+            buf = null;
+        }
+    }
+
+    /**
+     * InputStream that stops with an IOException when more than a maximum number of bytes is read.
+     */
+    private static class LimitedInputStream extends InputStream
+    {
+        final InputStream in;
+        final long maxBytes;
+        long numBytes = 0;
+        boolean exceeded = false;
+
+        LimitedInputStream(InputStream in, long maxBytes)
+        {
+            this.in = in;
+            this.maxBytes = maxBytes;
+        }
+
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b >= 0)
+            {
+                count(1);
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int num = in.read(b, off, len);
+            if (num > 0)
+            {
+                count(num);
+            }
+            return num;
+        }
+
+        private void count(int num) throws IOException
+        {
+            numBytes += num;
+            if (maxBytes > 0 && numBytes > maxBytes)
+            {
+                exceeded = true;
+                throw new IOException("Request body exceeds the maximum size of " + maxBytes + " bytes");
+            }
+        }
+    }
+}
\ No newline at end of file
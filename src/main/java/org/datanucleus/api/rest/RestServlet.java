@@ -21,19 +21,42 @@ package org.datanucleus.api.rest;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
+import javax.jdo.FetchPlan;
 import javax.jdo.JDOException;
 import javax.jdo.JDOHelper;
 import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.JDOOptimisticVerificationException;
 import javax.jdo.JDOUserException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -43,27 +66,68 @@ import javax.servlet.http.HttpServletResponse;
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.PersistenceNucleusContext;
+import org.datanucleus.PropertyNames;
 import org.datanucleus.api.jdo.JDOPersistenceManager;
 import org.datanucleus.api.jdo.JDOPersistenceManagerFactory;
+import org.datanucleus.api.jdo.JDOQuery;
+import org.datanucleus.api.rest.fieldmanager.SerialisationContext;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlanCache;
 import org.datanucleus.api.rest.orgjson.JSONArray;
 import org.datanucleus.api.rest.orgjson.JSONException;
+import org.datanucleus.api.rest.orgjson.JSONKeyDictionary;
 import org.datanucleus.api.rest.orgjson.JSONObject;
+import org.datanucleus.api.rest.orgjson.JSONTokener;
 import org.datanucleus.exceptions.ClassNotResolvedException;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.store.query.cache.QueryCompilationCache;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.compiler.Symbol;
+import org.datanucleus.store.query.compiler.SymbolTable;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * This servlet exposes persistent class via RESTful HTTP requests.
  * Supports the following
  * <ul>
- * <li>GET (retrieve/query), supporting GZIP compression on the response</li>
- * <li>POST (update/insert)</li>
- * <li>PUT (update/insert)</li>
- * <li>DELETE (delete)</li>
- * <li>HEAD (validate)</li>
+ * <li>GET (retrieve/query), supporting GZIP compression on the response, and paging of results using "offset"/"limit"
+ * or (for the candidate extent, where the ordering allows) a keyset "cursor" returned in the "X-Next-Cursor" header. Query parameter values can be
+ * passed as "param.{name}={value}" (also to any "filter"). Submitted queries are cached (up to "query-cache-size") keyed by the
+ * normalised query string, with their generic compilations held by the DataNucleus query compilation cache, whose type can be
+ * set using "query-compilation-cache" (e.g "soft", "strong", "none").
+ * Many objects can be retrieved by id in one request using "/{candidateclass}?ids=a,b,c" (or POST of a JSON array of ids
+ * to "/{candidateclass}?ids"), giving a JSON object with the "results" and the ids that were "missing".
+ * GET of an object by id of a versioned class returns an "ETag" (from the identity, version and fetch plan), and returns 304
+ * if it matches the "If-None-Match" header. The output can be limited to particular members of the candidate class (and
+ * related classes) using "fields=a,b,c.d", with the fetch group for each specification cached (up to "fields-cache-size").
+ * Related objects are output in full the first time they are reached, and thereafter (or when beyond
+ * "max-serialisation-depth") as a reference of just their "class" and "_id". "/{candidateclass}?count=true" returns just
+ * the number of (matching) objects, also given in the "X-Total-Count" header</li>
+ * <li>POST (update/insert), with the body parsed incrementally from the request stream (so no Content-Length is needed),
+ * subject to any "max-body-size" limit. Unless "lazy-parse" is disabled, string values of the object are only
+ * decoded when used, so string members not in the class cost just a skip. The body can also be a JSON array, or NDJSON (newline-delimited objects), of objects
+ * of the class to persist them all in one transaction, in batches of "bulk-batch-size". An "If-Match" header makes an update
+ * conditional on the object's version (as per the ETag from GET), returning 412 if the object has changed</li>
+ * <li>PUT (update/insert), as for POST</li>
+ * <li>PATCH (partial update, as JSON Merge Patch), replacing only the members present in the body</li>
+ * <li>DELETE (delete), either of the object with the id in the URL or body, of the objects matching a "filter", or of the
+ * objects whose ids are in a JSON array in the body (not combined with a "filter"). The number of objects deleted (when known) is in the "X-Deleted-Count" header</li>
+ * <li>HEAD (validate). For an extent (with optional filter) the number of objects is in the "X-Total-Count" header. For an
+ * object by id, checks existence using a projection query (so the object isn't instantiated), and returns the "ETag" as for GET</li>
  * </ul>
+ * When "async" is enabled, requests are processed asynchronously on a bounded executor (of "async-threads" threads, with up to
+ * "async-queue-size" requests waiting, or using virtual threads when "async-executor" is "virtual" and the JDK supports them),
+ * so that slow datastore operations don't hold container threads, and the response is written using non-blocking output.
+ * The ExecutionContexts behind the PersistenceManager of each request are pooled and reused by the PMF (its ExecutionContext
+ * pool), which can be configured here using "pm-pool-max-idle" (0 to disable pooling) and "pm-pool-reaper-thread". There
+ * are no statistics of pool hits/creations, since the ExecutionContext pool doesn't provide any, and telling a reused
+ * ExecutionContext from a new one here would need a synchronised lookup on every request.
+ * When "nontransactional-read" is enabled, GET and HEAD requests read without a transaction, so only taking a connection
+ * for each datastore operation.
  */
 public class RestServlet extends HttpServlet
 {
@@ -71,16 +135,77 @@ public class RestServlet extends HttpServlet
 
     public static final NucleusLogger LOGGER_REST = NucleusLogger.getLoggerInstance("DataNucleus.REST");
 
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
     PersistenceManagerFactory pmf;
     PersistenceNucleusContext nucCtx;
 
+    /** Whether to stream query results to the response one object at a time, rather than building the whole JSONArray first. */
+    boolean streamResults = true;
+
+    /** Cache of submitted queries, or null if not caching. */
+    QueryCache queryCache;
+
+    /** Cache of the resolution of URL class tokens to their metadata. */
+    ClassMetaDataCache classMetaDataCache;
+
+    /** Cache of the serialisation plans of the persistable classes, cleared when metadata is loaded. */
+    SerialisationPlanCache serialisationPlans;
+
+    /** Maximum size (bytes) of a request body, or 0 for no limit. */
+    long maxBodySize = 0;
+
+    /** Number of objects to persist (and flush) together in a bulk POST. */
+    int bulkBatchSize = 100;
+
+    /** Executor for processing requests asynchronously, or null if processing on the container thread. */
+    ExecutorService asyncExecutor;
+
+    /** Limit on the number of requests submitted to a virtual thread executor (which is itself unbounded), or null. */
+    Semaphore asyncPermits;
+
+    /** Timeout (millis) for asynchronous requests. */
+    long asyncTimeout = 60000;
+
+    /** Cache of the fetch groups for "fields" specifications. */
+    FieldsFetchGroupCache fieldsFetchGroups;
+
+    /** Max depth of relations to output in full, beyond which related objects are output as references (0 for the default limit). */
+    int maxSerialisationDepth = 0;
+
+    /** Whether GET and HEAD requests read outside of a transaction. */
+    boolean nontransactionalRead = false;
+
+    /** Whether the objects of request bodies are parsed lazily, only decoding the string values that are used. */
+    boolean lazyParse = true;
+
     /* (non-Javadoc)
      * @see javax.servlet.GenericServlet#destroy()
      */
     public void destroy()
     {
+        if (asyncExecutor != null)
+        {
+            asyncExecutor.shutdown();
+            try
+            {
+                asyncExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (queryCache != null)
+        {
+            LOGGER_REST.info("REST : " + queryCache);
+        }
         if (pmf != null && !pmf.isClosed())
         {
+            LOGGER_REST.info("REST : QueryManager compilation cache size=" + getQueryCompilationCacheSize());
+            nucCtx.getMetaDataManager().deregisterListener(classMetaDataCache);
+            nucCtx.getMetaDataManager().deregisterListener(serialisationPlans);
+            serialisationPlans.clear();
             LOGGER_REST.info("REST : Closing PMF");
             pmf.close();
         }
@@ -95,11 +220,35 @@ public class RestServlet extends HttpServlet
             throw new ServletException("You haven't specified \"persistence-context\" property defining the persistence unit");
         }
 
+        // PMF properties overriding those of the persistence unit
+        Map<String, Object> pmfProps = new HashMap<>();
+        String pmPoolMaxIdleStr = config.getInitParameter("pm-pool-max-idle");
+        if (pmPoolMaxIdleStr != null)
+        {
+            // Max number of idle ExecutionContexts kept in the pool of the PMF (0 disables pooling)
+            pmfProps.put(PropertyNames.PROPERTY_EXECUTION_CONTEXT_MAX_IDLE, Integer.valueOf(pmPoolMaxIdleStr.trim()).toString());
+        }
+        String pmPoolReaperThreadStr = config.getInitParameter("pm-pool-reaper-thread");
+        if (pmPoolReaperThreadStr != null)
+        {
+            pmfProps.put(PropertyNames.PROPERTY_EXECUTION_CONTEXT_REAPER_THREAD, Boolean.valueOf(pmPoolReaperThreadStr.trim()).toString());
+        }
+        String queryCompilationCacheStr = config.getInitParameter("query-compilation-cache");
+        if (queryCompilationCacheStr != null)
+        {
+            // Type of the QueryManager cache of generic query compilations
+            pmfProps.put(PropertyNames.PROPERTY_CACHE_QUERYCOMPILE_TYPE, queryCompilationCacheStr.trim());
+        }
+
         try
         {
             LOGGER_REST.info("REST : Creating PMF for factory=" + factory);
-            pmf = JDOHelper.getPersistenceManagerFactory(factory);
+            pmf = JDOHelper.getPersistenceManagerFactory(pmfProps, factory);
             this.nucCtx = ((JDOPersistenceManagerFactory)pmf).getNucleusContext();
+            this.classMetaDataCache = new ClassMetaDataCache(nucCtx);
+            nucCtx.getMetaDataManager().registerListener(classMetaDataCache);
+            this.serialisationPlans = new SerialisationPlanCache();
+            nucCtx.getMetaDataManager().registerListener(serialisationPlans);
         }
         catch (Exception e)
         {
@@ -107,6 +256,112 @@ public class RestServlet extends HttpServlet
             throw new ServletException("Could not create internal PMF. See nested exception for details", e);
         }
 
+        String streamResultsStr = config.getInitParameter("stream-results");
+        if (streamResultsStr != null)
+        {
+            streamResults = Boolean.valueOf(streamResultsStr.trim());
+        }
+
+        int queryCacheSize = 100;
+        String queryCacheSizeStr = config.getInitParameter("query-cache-size");
+        if (queryCacheSizeStr != null)
+        {
+            queryCacheSize = Integer.parseInt(queryCacheSizeStr.trim());
+        }
+        if (queryCacheSize > 0)
+        {
+            queryCache = new QueryCache(queryCacheSize);
+        }
+
+        String maxBodySizeStr = config.getInitParameter("max-body-size");
+        if (maxBodySizeStr != null)
+        {
+            maxBodySize = Long.parseLong(maxBodySizeStr.trim());
+        }
+
+        String bulkBatchSizeStr = config.getInitParameter("bulk-batch-size");
+        if (bulkBatchSizeStr != null)
+        {
+            bulkBatchSize = Math.max(1, Integer.parseInt(bulkBatchSizeStr.trim()));
+        }
+
+        int fieldsCacheSize = 100;
+        String fieldsCacheSizeStr = config.getInitParameter("fields-cache-size");
+        if (fieldsCacheSizeStr != null)
+        {
+            fieldsCacheSize = Integer.parseInt(fieldsCacheSizeStr.trim());
+        }
+        fieldsFetchGroups = new FieldsFetchGroupCache(pmf, nucCtx, fieldsCacheSize, serialisationPlans);
+
+        String maxSerialisationDepthStr = config.getInitParameter("max-serialisation-depth");
+        if (maxSerialisationDepthStr != null)
+        {
+            maxSerialisationDepth = Integer.parseInt(maxSerialisationDepthStr.trim());
+        }
+
+        String lazyParseStr = config.getInitParameter("lazy-parse");
+        if (lazyParseStr != null)
+        {
+            lazyParse = Boolean.valueOf(lazyParseStr.trim());
+        }
+
+        String nontransactionalReadStr = config.getInitParameter("nontransactional-read");
+        if (nontransactionalReadStr != null)
+        {
+            nontransactionalRead = Boolean.valueOf(nontransactionalReadStr.trim());
+        }
+
+        String asyncStr = config.getInitParameter("async");
+        if (asyncStr != null && Boolean.valueOf(asyncStr.trim()))
+        {
+            int asyncThreads = 2 * Runtime.getRuntime().availableProcessors();
+            String asyncThreadsStr = config.getInitParameter("async-threads");
+            if (asyncThreadsStr != null)
+            {
+                asyncThreads = Integer.parseInt(asyncThreadsStr.trim());
+            }
+            int asyncQueueSize = 100;
+            String asyncQueueSizeStr = config.getInitParameter("async-queue-size");
+            if (asyncQueueSizeStr != null)
+            {
+                asyncQueueSize = Integer.parseInt(asyncQueueSizeStr.trim());
+            }
+            String asyncTimeoutStr = config.getInitParameter("async-timeout");
+            if (asyncTimeoutStr != null)
+            {
+                asyncTimeout = Long.parseLong(asyncTimeoutStr.trim());
+            }
+
+            String asyncExecutorStr = config.getInitParameter("async-executor");
+            if ("virtual".equalsIgnoreCase(asyncExecutorStr))
+            {
+                try
+                {
+                    // Executors.newVirtualThreadPerTaskExecutor is JDK 21+, so access it by reflection
+                    asyncExecutor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    asyncPermits = new Semaphore(asyncThreads + asyncQueueSize);
+                    LOGGER_REST.info("REST : Processing requests asynchronously using virtual threads");
+                }
+                catch (Exception e)
+                {
+                    LOGGER_REST.warn("REST : Virtual threads are not supported by this JVM, so using a thread pool");
+                }
+            }
+            if (asyncExecutor == null)
+            {
+                final AtomicInteger threadNumber = new AtomicInteger();
+                asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, asyncQueueSize)),
+                    r ->
+                    {
+                        Thread thread = new Thread(r, "DataNucleus-REST-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                ((ThreadPoolExecutor)asyncExecutor).allowCoreThreadTimeOut(true);
+                LOGGER_REST.info("REST : Processing requests asynchronously using " + asyncThreads + " threads");
+            }
+        }
+
         super.init(config);
     }
 
@@ -125,6 +380,19 @@ public class RestServlet extends HttpServlet
         {
             maxFetchDepth = Integer.valueOf(maxFetchDepthStr);
         }
+        String fields = req.getParameter("fields");
+        Long offset = null;
+        Long limit = null;
+        try
+        {
+            offset = getLongParameter(req, "offset");
+            limit = getLongParameter(req, "limit");
+        }
+        catch (NumberFormatException nfe)
+        {
+            writeErrorResponse(resp, 400, "Parameters \"offset\" and \"limit\" must be non-negative integers");
+            return;
+        }
         boolean compress = requestAllowsGZIPCompression(req);
 
         try
@@ -148,10 +416,11 @@ public class RestServlet extends HttpServlet
                 PersistenceManager pm = pmf.getPersistenceManager();
                 try
                 {
-                    pm.currentTransaction().begin();
+                    beginRead(pm);
 
                     String queryString = URLDecoder.decode(jdoqlStr, "UTF-8");
-                    Query query = pm.newQuery("JDOQL", queryString);
+                    QueryCache.CachedQuery cachedQuery = getCachedQuery("JDOQL", queryString);
+                    Query query = pm.newQuery("JDOQL", (cachedQuery != null) ? cachedQuery.getQueryString() : queryString);
                     if (fetchGroup != null)
                     {
                         query.getFetchPlan().addGroup(fetchGroup);
@@ -160,21 +429,30 @@ public class RestServlet extends HttpServlet
                     {
                         query.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
                     }
-                    Object result = query.execute();
+                    applyRange(query, offset, limit);
+                    if (streamResults)
+                    {
+                        query.addExtension(org.datanucleus.store.query.Query.EXTENSION_RESULT_CACHE_TYPE, "none");
+                    }
+                    Object result = executeQuery(query, getQueryParameters(req, query));
+                    resp.setHeader("Content-Type", "application/json");
+                    resp.setStatus(200);
                     if (result instanceof Collection)
                     {
-                        JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection((Collection)result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        writeResponse(resp, jsonobj.toString(), compress);
+                        writeResponse(resp, (Collection)result, ((JDOPersistenceManager)pm).getExecutionContext(), compress);
                     }
                     else
                     {
-                        JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        writeResponse(resp, jsonobj.toString(), compress);
+                        writeObjectResponse(resp, result, ((JDOPersistenceManager)pm).getExecutionContext(), compress);
                     }
-                    resp.setHeader("Content-Type", "application/json");
-                    resp.setStatus(200);
+                    query.closeAll();
 
-                    pm.currentTransaction().commit();
+                    commitRead(pm);
+                }
+                catch (JDOUserException e)
+                {
+                    // Invalid query, or parameter value
+                    writeErrorResponse(resp, 400, e.getMessage());
                 }
                 finally
                 {
@@ -205,10 +483,11 @@ public class RestServlet extends HttpServlet
                 PersistenceManager pm = pmf.getPersistenceManager();
                 try
                 {
-                    pm.currentTransaction().begin();
+                    beginRead(pm);
 
                     String queryString = URLDecoder.decode(jpqlStr, "UTF-8");
-                    Query query = pm.newQuery("JPQL", queryString);
+                    QueryCache.CachedQuery cachedQuery = getCachedQuery("JPQL", queryString);
+                    Query query = pm.newQuery("JPQL", (cachedQuery != null) ? cachedQuery.getQueryString() : queryString);
                     if (fetchGroup != null)
                     {
                         query.getFetchPlan().addGroup(fetchGroup);
@@ -217,21 +496,30 @@ public class RestServlet extends HttpServlet
                     {
                         query.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
                     }
-                    Object result = query.execute();
+                    applyRange(query, offset, limit);
+                    if (streamResults)
+                    {
+                        query.addExtension(org.datanucleus.store.query.Query.EXTENSION_RESULT_CACHE_TYPE, "none");
+                    }
+                    Object result = executeQuery(query, getQueryParameters(req, query));
+                    resp.setHeader("Content-Type", "application/json");
+                    resp.setStatus(200);
                     if (result instanceof Collection)
                     {
-                        JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection((Collection)result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        writeResponse(resp, jsonobj.toString(), compress);
+                        writeResponse(resp, (Collection)result, ((JDOPersistenceManager)pm).getExecutionContext(), compress);
                     }
                     else
                     {
-                        JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        writeResponse(resp, jsonobj.toString(), compress);
+                        writeObjectResponse(resp, result, ((JDOPersistenceManager)pm).getExecutionContext(), compress);
                     }
-                    resp.setHeader("Content-Type", "application/json");
-                    resp.setStatus(200);
+                    query.closeAll();
 
-                    pm.currentTransaction().commit();
+                    commitRead(pm);
+                }
+                catch (JDOUserException e)
+                {
+                    // Invalid query, or parameter value
+                    writeErrorResponse(resp, 400, e.getMessage());
                 }
                 finally
                 {
@@ -257,14 +545,10 @@ public class RestServlet extends HttpServlet
             {
                 // GET "/{candidateclass}..."
                 String className = token;
-                ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
-                AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForEntityName(className);
+                ClassMetaDataCache.ClassInfo classInfo;
                 try
                 {
-                    if (cmd == null)
-                    {
-                        cmd = nucCtx.getMetaDataManager().getMetaDataForClass(className, clr);
-                    }
+                    classInfo = classMetaDataCache.getClassInfo(className);
                 }
                 catch (ClassNotResolvedException ex)
                 {
@@ -275,26 +559,33 @@ public class RestServlet extends HttpServlet
                     resp.setHeader("Content-Type", "application/json");
                     return;
                 }
+                AbstractClassMetaData cmd = classInfo.getClassMetaData();
+
+                String idsStr = req.getParameter("ids");
+                if (idsStr != null && !hasIdInURL(req))
+                {
+                    // GET "/{candidateclass}?ids=a,b,c" - Find objects by id
+                    JSONArray ids = new JSONArray();
+                    StringTokenizer idTokenizer = new StringTokenizer(idsStr, ",");
+                    while (idTokenizer.hasMoreTokens())
+                    {
+                        ids.put(idTokenizer.nextToken().trim());
+                    }
+                    writeObjectsById(resp, classInfo, ids, fields, fetchGroup, maxFetchDepth, compress);
+                    return;
+                }
 
-                Object id = getId(req);
+                Object id = getId(req, classInfo);
                 if (id == null)
                 {
                     // GET "/{candidateclass}[?filter={the_filter}]" where "the_filter" is (encoded) "paramX == val1 && paramY == val2 ..."
                     try
                     {
                         PersistenceManager pm = pmf.getPersistenceManager();
-                        if (fetchGroup != null)
-                        {
-                            pm.getFetchPlan().addGroup(fetchGroup);
-                        }
-                        if (maxFetchDepth != null)
-                        {
-                            pm.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
-                        }
-
                         try
                         {
-                            pm.currentTransaction().begin();
+                            applyFetchPlan(pm, cmd, fields, fetchGroup, maxFetchDepth);
+                            beginRead(pm);
 
                             // get the whole extent for this candidate
                             String jdoqlStr = "SELECT FROM " + cmd.getFullClassName();
@@ -302,17 +593,96 @@ public class RestServlet extends HttpServlet
                             if (filterStr != null)
                             {
                                 // Optional filter
-                                jdoqlStr += " WHERE " + URLDecoder.decode(filterStr, "UTF-8");
+                                filterStr = "(" + URLDecoder.decode(filterStr, "UTF-8") + ")";
+                            }
+
+                            String countStr = req.getParameter("count");
+                            if (countStr != null && Boolean.valueOf(countStr))
+                            {
+                                // GET "/{candidateclass}?count=true[&filter=...]" - Just the number of matching objects
+                                long count = countObjects(pm, cmd, filterStr, req);
+                                JSONObject countObj = new JSONObject();
+                                countObj.put("count", count);
+                                resp.setHeader("X-Total-Count", String.valueOf(count));
+                                resp.setHeader("Content-Type", "application/json");
+                                resp.setStatus(200);
+                                resp.getWriter().write(countObj.toString());
+                                commitRead(pm);
+                                return;
+                            }
+
+                            // Optional ordering and paging. Keyset cursors are used where possible so that deep pages don't have to skip rows
+                            String orderStr = req.getParameter("order");
+                            if (orderStr != null)
+                            {
+                                orderStr = URLDecoder.decode(orderStr, "UTF-8");
+                            }
+                            String cursorStr = req.getParameter("cursor");
+                            KeysetCursor keyset = null;
+                            if (cursorStr != null || (limit != null && cmd.getIdentityType() == IdentityType.APPLICATION))
+                            {
+                                try
+                                {
+                                    keyset = new KeysetCursor(cmd, orderStr);
+                                }
+                                catch (NucleusUserException nue)
+                                {
+                                    if (cursorStr != null)
+                                    {
+                                        throw nue;
+                                    }
+                                    // Ordering not usable with a keyset cursor, so page using the offset
+                                    NucleusLogger.GENERAL.debug("Paging of " + cmd.getFullClassName() + " will use offset : " + nue.getMessage());
+                                }
+                                if (keyset != null)
+                                {
+                                    if (cursorStr != null)
+                                    {
+                                        keyset.setCursor(cursorStr);
+                                        filterStr = (filterStr != null) ? (filterStr + " && " + keyset.getFilter()) : keyset.getFilter();
+                                    }
+                                    orderStr = keyset.getOrdering();
+                                }
+                            }
+                            if (filterStr != null)
+                            {
+                                jdoqlStr += " WHERE " + filterStr;
+                            }
+                            if (orderStr != null)
+                            {
+                                jdoqlStr += " ORDER BY " + orderStr;
                             }
 
-                            Query query = pm.newQuery("JDOQL", jdoqlStr);
-                            List result = (List)query.execute();
-                            JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection(result, ((JDOPersistenceManager)pm).getExecutionContext());
-                            writeResponse(resp, jsonobj.toString(), compress);
+                            if (keyset != null && keyset.hasCursor())
+                            {
+                                // Cursor defines the start position
+                                offset = null;
+                            }
+                            QueryCache.CachedQuery cachedQuery = getCachedQuery("JDOQL", jdoqlStr);
+                            Query query = pm.newQuery("JDOQL", (cachedQuery != null) ? cachedQuery.getQueryString() : jdoqlStr);
+                            applyRange(query, offset, limit);
+                            if (streamResults && limit == null)
+                            {
+                                query.addExtension(org.datanucleus.store.query.Query.EXTENSION_RESULT_CACHE_TYPE, "none");
+                            }
+                            Map params = getQueryParameters(req, query);
+                            if (keyset != null)
+                            {
+                                params.putAll(keyset.getParameters());
+                            }
+                            List result = (List)executeQuery(query, params);
+                            ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+                            if (keyset != null && limit != null && limit > 0 && result.size() == limit)
+                            {
+                                // Full page so provide the cursor for the next page
+                                resp.setHeader("X-Next-Cursor", keyset.getCursorForObject(result.get(result.size() - 1), ec));
+                            }
                             resp.setHeader("Content-Type", "application/json");
                             resp.setStatus(200);
+                            writeResponse(resp, result, ec, compress);
+                            query.closeAll();
 
-                            pm.currentTransaction().commit();
+                            commitRead(pm);
                         }
                         finally
                         {
@@ -333,6 +703,15 @@ public class RestServlet extends HttpServlet
                         resp.setHeader("Content-Type", "application/json");
                         return;
                     }
+                    catch (NucleusUserException e)
+                    {
+                        JSONObject error = new JSONObject();
+                        error.put("exception", e.getMessage());
+                        resp.getWriter().write(error.toString());
+                        resp.setStatus(400);
+                        resp.setHeader("Content-Type", "application/json");
+                        return;
+                    }
                     catch (JDOException ex)
                     {
                         JSONObject error = new JSONObject();
@@ -346,25 +725,34 @@ public class RestServlet extends HttpServlet
 
                 // GET "/{candidateclass}/id" - Find object by id
                 PersistenceManager pm = pmf.getPersistenceManager();
-                if (fetchGroup != null)
-                {
-                    pm.getFetchPlan().addGroup(fetchGroup);
-                }
-                if (maxFetchDepth != null)
-                {
-                    pm.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
-                }
-
                 try
                 {
-                    pm.currentTransaction().begin();
+                    applyFetchPlan(pm, cmd, fields, fetchGroup, maxFetchDepth);
+                    beginRead(pm);
                     Object result = pm.getObjectById(id);
+
+                    // Check the version (if any) before loading the fetch plan and converting to JSON
+                    Object version = JDOHelper.getVersion(result);
+                    if (version != null)
+                    {
+                        String etag = getETag(id, version, pm.getFetchPlan());
+                        resp.setHeader("ETag", etag);
+                        String ifNoneMatch = req.getHeader("If-None-Match");
+                        if (ifNoneMatch != null && matchesETag(ifNoneMatch, etag, false))
+                        {
+                            // Not modified
+                            resp.setContentLength(0);
+                            resp.setStatus(304);
+                            commitRead(pm);
+                            return;
+                        }
+                    }
+
                     pm.retrieve(result); // Make sure all fields in FetchPlan are loaded before converting to JSON
 
-                    JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(result, ((JDOPersistenceManager)pm).getExecutionContext());
-                    writeResponse(resp, jsonobj.toString(), compress);
                     resp.setHeader("Content-Type","application/json");
-                    pm.currentTransaction().commit();
+                    writeObjectResponse(resp, result, ((JDOPersistenceManager)pm).getExecutionContext(), compress);
+                    commitRead(pm);
                     return;
                 }
                 catch (JDOObjectNotFoundException ex)
@@ -373,6 +761,11 @@ public class RestServlet extends HttpServlet
                     resp.setStatus(404);
                     return;
                 }
+                catch (NucleusUserException ex)
+                {
+                    writeErrorResponse(resp, 400, ex.getMessage());
+                    return;
+                }
                 catch (JDOException ex)
                 {
                     JSONObject error = new JSONObject();
@@ -414,58 +807,194 @@ public class RestServlet extends HttpServlet
         doPost(req, resp);
     }
 
+    /* (non-Javadoc)
+     * @see javax.servlet.http.HttpServlet#service(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+    {
+        if (asyncExecutor != null && req.isAsyncSupported())
+        {
+            serviceAsync(req, resp);
+            return;
+        }
+        dispatch(req, resp);
+    }
+
+    /**
+     * Method to process the request on the async executor, writing the response with non-blocking output.
+     * Responds with 503 if the executor is at capacity.
+     * @param req The request
+     * @param resp The response
+     * @throws IOException If an error occurs
+     */
+    private void serviceAsync(HttpServletRequest req, HttpServletResponse resp) throws IOException
+    {
+        final AsyncContext asyncCtx = req.startAsync(req, resp);
+        asyncCtx.setTimeout(asyncTimeout);
+        final NonBlockingResponseWrapper asyncResp = new NonBlockingResponseWrapper(resp, asyncCtx);
+        Runnable task = () ->
+        {
+            try
+            {
+                dispatch((HttpServletRequest)asyncCtx.getRequest(), asyncResp);
+            }
+            catch (Throwable thr)
+            {
+                LOGGER_REST.error("Exception processing request asynchronously", thr);
+                try
+                {
+                    asyncResp.reset();
+                    asyncResp.setStatus(500);
+                }
+                catch (IllegalStateException ise)
+                {
+                    // Response already committed, so the client gets what was written so far
+                }
+            }
+            finally
+            {
+                if (asyncPermits != null)
+                {
+                    asyncPermits.release();
+                }
+                asyncResp.finish();
+            }
+        };
+
+        if (asyncPermits != null && !asyncPermits.tryAcquire())
+        {
+            rejectAsync(asyncResp);
+            return;
+        }
+        try
+        {
+            asyncExecutor.execute(task);
+        }
+        catch (RejectedExecutionException ree)
+        {
+            if (asyncPermits != null)
+            {
+                asyncPermits.release();
+            }
+            rejectAsync(asyncResp);
+        }
+    }
+
+    private void rejectAsync(NonBlockingResponseWrapper asyncResp)
+    {
+        LOGGER_REST.warn("REST : Request rejected since asynchronous processing is at capacity");
+        asyncResp.setStatus(503);
+        asyncResp.setContentLength(0);
+        asyncResp.finish();
+    }
+
+    /**
+     * Method to pass the request to the handler for its HTTP method.
+     * @param req The request
+     * @param resp The response
+     * @throws ServletException If an error occurs
+     * @throws IOException If an error occurs
+     */
+    private void dispatch(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+    {
+        if (req.getMethod().equalsIgnoreCase("PATCH"))
+        {
+            // HttpServlet has no support for PATCH
+            doPatch(req, resp);
+            return;
+        }
+        super.service(req, resp);
+    }
+
     protected void doOptions(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
     {
-        resp.addHeader("Allow", " GET, HEAD, POST, PUT, TRACE, OPTIONS");
+        resp.addHeader("Allow", " GET, HEAD, POST, PUT, PATCH, TRACE, OPTIONS");
         resp.setContentLength(0);
     }
 
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) 
     throws ServletException, IOException
     {
-        if (req.getContentLength() < 1)
+        RequestBodyReader body = getNonEmptyRequestBody(req, resp);
+        if (body == null)
         {
-            resp.setContentLength(0);
-            resp.setStatus(400);// bad request
             return;
         }
 
-        char[] buffer = new char[req.getContentLength()];
-        req.getReader().read(buffer);
-        String str = new String(buffer);
+        if (req.getParameter("ids") != null)
+        {
+            // POST "/{candidateclass}?ids" with JSON array of ids - Find objects by id
+            ClassMetaDataCache.ClassInfo classInfo;
+            JSONArray ids;
+            try
+            {
+                classInfo = classMetaDataCache.getClassInfo(getNextTokenAfterSlash(req));
+                ids = new JSONArray(new JSONTokener(body));
+            }
+            catch (ClassNotResolvedException e)
+            {
+                writeErrorResponse(resp, 404, e.getMessage());
+                return;
+            }
+            catch (JSONException e)
+            {
+                if (body.isLimitExceeded())
+                {
+                    writeErrorResponse(resp, 413, "Request body exceeds the maximum size of " + maxBodySize + " bytes");
+                }
+                else
+                {
+                    writeErrorResponse(resp, 400, e.getMessage());
+                }
+                return;
+            }
+            finally
+            {
+                body.close();
+            }
+
+            String fetchGroup = req.getParameter("fetchGroup");
+            if (fetchGroup == null)
+            {
+                fetchGroup = req.getParameter("fetch");
+            }
+            String maxFetchDepthStr = req.getParameter("maxFetchDepth");
+            writeObjectsById(resp, classInfo, ids, req.getParameter("fields"), fetchGroup, (maxFetchDepthStr != null) ? Integer.valueOf(maxFetchDepthStr) : null,
+                requestAllowsGZIPCompression(req));
+            return;
+        }
+
         JSONObject jsonobj;
         PersistenceManager pm = pmf.getPersistenceManager();
         ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
         try
         {
-            pm.currentTransaction().begin();
-            jsonobj = new JSONObject(str);
+            beginUpdate(req, pm);
             String className = getNextTokenAfterSlash(req);
+            JSONTokener tokener = newTokener(body, className);
+            if (body.peek() == '[')
+            {
+                // Bulk insert/update of a JSON array of objects
+                persistBulk(req, resp, pm, className, body, tokener, null);
+                return;
+            }
+
+            jsonobj = new JSONObject(tokener, lazyParse);
+            if (tokener.nextClean() != 0)
+            {
+                // Further objects follow, so bulk insert/update of NDJSON
+                tokener.back();
+                persistBulk(req, resp, pm, className, body, tokener, jsonobj);
+                return;
+            }
             jsonobj.put("class", className);
 
             // Process any id info provided in the URL
-            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(className, ec.getClassLoaderResolver());
-            String path = req.getRequestURI().substring(req.getContextPath().length() + req.getServletPath().length());
-            StringTokenizer tokenizer = new StringTokenizer(path, "/");
-            tokenizer.nextToken(); // className
-            if (tokenizer.hasMoreTokens())
+            applyURLIdentity(req, jsonobj, className);
+
+            if (!checkIfMatch(req, resp, pm, jsonobj, className))
             {
-                String idToken = tokenizer.nextToken();
-                Object id = RESTUtils.getIdentityForURLToken(cmd, idToken, nucCtx);
-                if (id != null)
-                {
-                    if (cmd.getIdentityType() == IdentityType.APPLICATION)
-                    {
-                        if (cmd.usesSingleFieldIdentityClass())
-                        {
-                            jsonobj.put(cmd.getPrimaryKeyMemberNames()[0], IdentityUtils.getTargetKeyForSingleFieldIdentity(id));
-                        }
-                    }
-                    else if (cmd.getIdentityType() == IdentityType.DATASTORE)
-                    {
-                        jsonobj.put("_id", IdentityUtils.getTargetKeyForDatastoreIdentity(id));
-                    }
-                }
+                return;
             }
 
             // Convert to an object from JSON
@@ -473,12 +1002,14 @@ public class RestServlet extends HttpServlet
 
             // Persist
             Object obj = pm.makePersistent(pc);
+            pm.flush();
 
-            // Return as JSON
-            JSONObject jsonobj2 = RESTUtils.getJSONObjectFromPOJO(obj, ec);
-            resp.getWriter().write(jsonobj2.toString());
-            resp.setHeader("Content-Type", "application/json");
+            // Return as JSON, written only once committed so that a failed commit (e.g version conflict) gets its own response
+            String result = RESTUtils.getJSONObjectFromPOJO(obj, ec, newSerialisationContext()).toString();
             pm.currentTransaction().commit();
+            resp.setStatus(201);// created
+            resp.setHeader("Content-Type", "application/json");
+            resp.getWriter().write(result);
         }
         catch (ClassNotResolvedException e)
         {
@@ -496,7 +1027,12 @@ public class RestServlet extends HttpServlet
                 throw new RuntimeException(e1);
             }
         }
-        catch (JDOUserException e)
+        catch (JDOOptimisticVerificationException e)
+        {
+            writeErrorResponse(resp, 412, e.getMessage());
+            return;
+        }
+        catch (JDOUserException e)
         {
             try
             {
@@ -530,6 +1066,11 @@ public class RestServlet extends HttpServlet
         }
         catch (JSONException e)
         {
+            if (body.isLimitExceeded())
+            {
+                writeErrorResponse(resp, 413, "Request body exceeds the maximum size of " + maxBodySize + " bytes");
+                return;
+            }
             try
             {
                 JSONObject error = new JSONObject();
@@ -546,30 +1087,423 @@ public class RestServlet extends HttpServlet
         }
         finally
         {
+            body.close();
             if (pm.currentTransaction().isActive())
             {
                 pm.currentTransaction().rollback();
             }
             pm.close();
         }
-        resp.setStatus(201);// created
     }
 
-    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) 
+    /**
+     * Method to handle a PATCH request, being a partial update of an object (JSON Merge Patch, RFC 7386).
+     * The body is a JSON object with the members to update, and only those members are replaced (and so dirtied and flushed).
+     * A null value sets the member to null. The object must already exist, identified by the URL or the PK/"_id" in the body.
+     * @param req The request
+     * @param resp The response
+     * @throws ServletException If an error occurs
+     * @throws IOException If an error occurs
+     */
+    protected void doPatch(HttpServletRequest req, HttpServletResponse resp)
     throws ServletException, IOException
     {
+        RequestBodyReader body = getNonEmptyRequestBody(req, resp);
+        if (body == null)
+        {
+            return;
+        }
+
         PersistenceManager pm = pmf.getPersistenceManager();
+        ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
         try
         {
+            beginUpdate(req, pm);
             String className = getNextTokenAfterSlash(req);
+            JSONObject jsonobj = new JSONObject(newTokener(body, className), lazyParse);
+            jsonobj.put("class", className);
+            applyURLIdentity(req, jsonobj, className);
+
+            if (!checkIfMatch(req, resp, pm, jsonobj, className))
+            {
+                return;
+            }
+
+            // Replace only the supplied fields of the object
+            Object obj = RESTUtils.getObjectFromJSONObject(jsonobj, className, ec, true, getKeyDictionary(className));
+            pm.flush();
+
+            // Return the updated object as JSON, as for POST
+            String result = RESTUtils.getJSONObjectFromPOJO(obj, ec, newSerialisationContext()).toString();
+            pm.currentTransaction().commit();
+            resp.setHeader("Content-Type", "application/json");
+            resp.setStatus(200);
+            resp.getWriter().write(result);
+        }
+        catch (ClassNotResolvedException e)
+        {
+            writeErrorResponse(resp, 404, e.getMessage());
+        }
+        catch (NucleusObjectNotFoundException | JDOObjectNotFoundException e)
+        {
+            writeErrorResponse(resp, 404, e.getMessage());
+        }
+        catch (JDOOptimisticVerificationException e)
+        {
+            writeErrorResponse(resp, 412, e.getMessage());
+        }
+        catch (NucleusUserException | JDOUserException e)
+        {
+            writeErrorResponse(resp, 400, e.getMessage());
+        }
+        catch (JSONException e)
+        {
+            writeErrorResponse(resp, body.isLimitExceeded() ? 413 : 400, e.getMessage());
+        }
+        catch (JDOException e)
+        {
+            LOGGER_REST.error("Exception on attempted PATCH : " + e.getMessage(), e);
+            writeErrorResponse(resp, 500, e.getMessage());
+        }
+        finally
+        {
+            body.close();
+            if (pm.currentTransaction().isActive())
+            {
+                pm.currentTransaction().rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Convenience method to get a reader for the body of the request, checking that there is a body and that it doesn't
+     * exceed any max size. If not valid then writes the error to the response and returns null.
+     * @param req The request
+     * @param resp The response
+     * @return The body reader, or null if there is no valid body
+     * @throws IOException If an error occurs
+     */
+    private RequestBodyReader getNonEmptyRequestBody(HttpServletRequest req, HttpServletResponse resp) throws IOException
+    {
+        if (req.getContentLength() == 0)
+        {
+            resp.setContentLength(0);
+            resp.setStatus(400);// bad request
+            return null;
+        }
+        if (maxBodySize > 0 && req.getContentLength() > maxBodySize)
+        {
+            writeErrorResponse(resp, 413, "Request body exceeds the maximum size of " + maxBodySize + " bytes");
+            return null;
+        }
+
+        RequestBodyReader body = getRequestBodyReader(req);
+        try
+        {
+            if (body.isEmpty())
+            {
+                body.close();
+                resp.setContentLength(0);
+                resp.setStatus(400);// bad request
+                return null;
+            }
+        }
+        catch (IOException e)
+        {
+            body.close();
+            if (body.isLimitExceeded())
+            {
+                writeErrorResponse(resp, 413, e.getMessage());
+                return null;
+            }
+            throw e;
+        }
+        return body;
+    }
+
+    /**
+     * Convenience method to create a tokener for the body of a request for objects of the specified class. The keys of
+     * objects are resolved through a dictionary seeded with the member names of the class, so keys repeated across the
+     * objects of a bulk request are only created once, and are then the same instances as the member names.
+     * @param body The body reader
+     * @param className Name of the class of the objects in the body
+     * @return The tokener
+     */
+    private JSONTokener newTokener(RequestBodyReader body, String className)
+    {
+        JSONTokener tokener = new JSONTokener(body);
+        JSONKeyDictionary keyDictionary = getKeyDictionary(className);
+        if (keyDictionary != null)
+        {
+            tokener.setKeyDictionary(new JSONKeyDictionary(keyDictionary, JSONKeyDictionary.DEFAULT_MAX_SIZE));
+        }
+        // else not persistable, so the tokener uses a dictionary of its own, and the class is reported when converting
+        return tokener;
+    }
+
+    /**
+     * Convenience accessor for the key dictionary of the serialisation plan of the specified class, mapping its member
+     * names to their absolute field numbers.
+     * @param className Name of the class (or entity name)
+     * @return The key dictionary, or null if the class isn't persistable
+     */
+    private JSONKeyDictionary getKeyDictionary(String className)
+    {
+        try
+        {
+            AbstractClassMetaData cmd = classMetaDataCache.getClassInfo(className).getClassMetaData();
             ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
-            AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForEntityName(className);
+            return serialisationPlans.getPlan(cmd, clr).getKeyDictionary();
+        }
+        catch (ClassNotResolvedException cnre)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Method to set the identity specified in the URL (if any) into the JSONObject of the object, as the PK member
+     * (for single-field identity) or "_id" (for datastore identity).
+     * @param req The request
+     * @param jsonobj The JSONObject for the object
+     * @param className Name of the class in the URL
+     * @throws JSONException If an error occurs
+     */
+    private void applyURLIdentity(HttpServletRequest req, JSONObject jsonobj, String className) throws JSONException
+    {
+        String path = req.getRequestURI().substring(req.getContextPath().length() + req.getServletPath().length());
+        StringTokenizer tokenizer = new StringTokenizer(path, "/");
+        tokenizer.nextToken(); // className
+        if (tokenizer.hasMoreTokens())
+        {
+            AbstractClassMetaData cmd = classMetaDataCache.getClassInfo(className).getClassMetaData();
+            String idToken = tokenizer.nextToken();
+            Object id = RESTUtils.getIdentityForURLToken(cmd, idToken, nucCtx);
+            if (id != null)
+            {
+                if (cmd.getIdentityType() == IdentityType.APPLICATION)
+                {
+                    if (cmd.usesSingleFieldIdentityClass())
+                    {
+                        jsonobj.put(cmd.getPrimaryKeyMemberNames()[0], IdentityUtils.getTargetKeyForSingleFieldIdentity(id));
+                    }
+                }
+                else if (cmd.getIdentityType() == IdentityType.DATASTORE)
+                {
+                    jsonobj.put("_id", IdentityUtils.getTargetKeyForDatastoreIdentity(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to begin the transaction for an update. When the update is conditional on an If-Match header the transaction
+     * is made optimistic (which must be done before it is active), so the version is verified again at commit.
+     * @param req The request
+     * @param pm PersistenceManager
+     */
+    private void beginUpdate(HttpServletRequest req, PersistenceManager pm)
+    {
+        if (req.getHeader("If-Match") != null)
+        {
+            pm.currentTransaction().setOptimistic(true);
+        }
+        pm.currentTransaction().begin();
+    }
+
+    /**
+     * Method to check any If-Match header of an update against the current version of the object, before any fields are
+     * replaced. The transaction should have been begun by {@link #beginUpdate(HttpServletRequest, PersistenceManager)}.
+     * If the check fails then writes a 412 response.
+     * @param req The request
+     * @param resp The response
+     * @param pm PersistenceManager, with active transaction
+     * @param jsonobj The JSONObject for the object
+     * @param className Name of the class
+     * @return Whether the update can proceed
+     * @throws IOException If an error occurs writing the response
+     */
+    private boolean checkIfMatch(HttpServletRequest req, HttpServletResponse resp, PersistenceManager pm, JSONObject jsonobj, String className)
+    throws IOException
+    {
+        String ifMatch = req.getHeader("If-Match");
+        if (ifMatch == null)
+        {
+            return true;
+        }
+
+        // Conditional update, so check the version before replacing any fields
+        AbstractClassMetaData cmd = classMetaDataCache.getClassInfo(className).getClassMetaData();
+        Object id = RESTUtils.getIdentityForJSONObject(jsonobj, cmd, ((JDOPersistenceManager)pm).getExecutionContext());
+        if (!matchesCurrentVersion(pm, id, ifMatch))
+        {
+            writeErrorResponse(resp, 412, "Object has been modified since the version specified by If-Match");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method to persist the objects in the body of a bulk POST, being either a JSON array of objects or NDJSON (a series of
+     * objects, separated by whitespace/newlines). The objects are read from the body one at a time, and persisted in batches
+     * of "bulk-batch-size" with a flush after each batch. When all are persisted the transaction is committed, and then a JSON
+     * array is written to the response, with an element per item holding the persisted object. If any item fails then an error
+     * is written, with the "index" of the failing item (or of the first item in the failing batch), and the caller should roll
+     * back. Any exception on commit is thrown, with nothing yet written.
+     * @param req The request
+     * @param resp The response
+     * @param pm PersistenceManager, with active transaction
+     * @param className Name of the class of the objects
+     * @param body Reader for the body
+     * @param tokener Tokener for the body
+     * @param firstObject The first object, already read, for NDJSON; null when the body is a JSON array
+     * @return Whether all objects were persisted and committed
+     * @throws IOException If an error occurs writing the response
+     */
+    private boolean persistBulk(HttpServletRequest req, HttpServletResponse resp, PersistenceManager pm, String className,
+            RequestBodyReader body, JSONTokener tokener, JSONObject firstObject) throws IOException
+    {
+        String path = req.getRequestURI().substring(req.getContextPath().length() + req.getServletPath().length());
+        if (new StringTokenizer(path, "/").countTokens() > 1)
+        {
+            writeErrorResponse(resp, 400, "Bulk POST of multiple objects cannot specify an id in the URL");
+            return false;
+        }
+
+        ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+        boolean array = (firstObject == null);
+        JSONArray results = new JSONArray();
+        List<Object> batch = new ArrayList<>(bulkBatchSize);
+        int index = 0; // Index of the current item
+        int batchStart = 0; // Index of the first item in the current batch
+        boolean persisting = false;
+        try
+        {
+            if (array && tokener.nextClean() != '[')
+            {
+                throw tokener.syntaxError("A JSONArray text must start with '['");
+            }
+            JSONObject jsonobj = array ? nextBulkObject(tokener, true, true) : firstObject;
+            while (jsonobj != null)
+            {
+                jsonobj.put("class", className);
+                batch.add(RESTUtils.getObjectFromJSONObject(jsonobj, className, ec));
+                index++;
+                if (batch.size() == bulkBatchSize)
+                {
+                    persisting = true;
+                    persistBatch(pm, batch, results);
+                    persisting = false;
+                    batchStart = index;
+                }
+                jsonobj = nextBulkObject(tokener, array, false);
+            }
+            if (!batch.isEmpty())
+            {
+                persisting = true;
+                persistBatch(pm, batch, results);
+            }
+        }
+        catch (JSONException | RuntimeException e)
+        {
+            // When persisting a batch we don't know which item failed, so report the start of the batch
+            int failedIndex = persisting ? batchStart : index;
+            if (body.isLimitExceeded())
+            {
+                writeErrorResponse(resp, 413, "Request body exceeds the maximum size of " + maxBodySize + " bytes");
+                return false;
+            }
+            int status = (e instanceof JSONException || e instanceof JDOUserException || e instanceof NucleusUserException ||
+                e instanceof ClassNotResolvedException) ? 400 : 500;
+            LOGGER_REST.error("Exception in bulk POST at item " + failedIndex, e);
             try
             {
-                if (cmd == null)
+                JSONObject error = new JSONObject();
+                error.put("exception", e.getMessage());
+                error.put("index", failedIndex);
+                resp.getWriter().write(error.toString());
+                resp.setStatus(status);
+                resp.setHeader("Content-Type", "application/json");
+            }
+            catch (JSONException e1)
+            {
+                throw new RuntimeException(e1);
+            }
+            return false;
+        }
+
+        String result = results.toString();
+        pm.currentTransaction().commit();
+        resp.setHeader("Content-Type", "application/json");
+        resp.setStatus(201);
+        resp.getWriter().write(result);
+        return true;
+    }
+
+    /**
+     * Method to read the next object of a bulk POST body.
+     * @param tokener Tokener for the body
+     * @param array Whether the body is a JSON array (otherwise NDJSON)
+     * @param first Whether this is the first element of the array
+     * @return The next object, or null if no more
+     * @throws JSONException if the body is not valid
+     */
+    private JSONObject nextBulkObject(JSONTokener tokener, boolean array, boolean first) throws JSONException
+    {
+        char c = tokener.nextClean();
+        if (array)
+        {
+            if (c == ']')
+            {
+                return null;
+            }
+            if (!first)
+            {
+                if (c != ',')
                 {
-                    cmd = nucCtx.getMetaDataManager().getMetaDataForClass(className, clr);
+                    throw tokener.syntaxError("Expected a ',' or ']'");
                 }
+                c = tokener.nextClean();
+            }
+        }
+        else if (c == 0)
+        {
+            return null;
+        }
+        tokener.back();
+        return new JSONObject(tokener, lazyParse);
+    }
+
+    /**
+     * Method to persist a batch of objects of a bulk POST, flushing them to the datastore, and adding their JSON form to the results.
+     * @param pm PersistenceManager
+     * @param batch The objects to persist, cleared on return
+     * @param results The results to add to
+     */
+    private void persistBatch(PersistenceManager pm, List<Object> batch, JSONArray results)
+    {
+        ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+        Collection persisted = pm.makePersistentAll(batch);
+        pm.flush();
+        for (Object obj : persisted)
+        {
+            results.put(RESTUtils.getJSONObjectFromPOJO(obj, ec, newSerialisationContext()));
+        }
+        batch.clear();
+    }
+
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) 
+    throws ServletException, IOException
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            String className = getNextTokenAfterSlash(req);
+            ClassMetaDataCache.ClassInfo classInfo;
+            try
+            {
+                classInfo = classMetaDataCache.getClassInfo(className);
             }
             catch (ClassNotResolvedException ex)
             {
@@ -587,9 +1521,51 @@ public class RestServlet extends HttpServlet
                 }
                 return;
             }
+            AbstractClassMetaData cmd = classInfo.getClassMetaData();
 
-            Object id = getId(req);
-            if (id == null)
+            Object id = null;
+            JSONArray ids = null;
+            if (hasIdInURL(req))
+            {
+                id = getId(req, classInfo);
+            }
+            else
+            {
+                String body = readRequestBody(req);
+                if (body != null && body.trim().startsWith("["))
+                {
+                    ids = new JSONArray(body);
+                }
+                else
+                {
+                    id = getIdFromString(body, classInfo);
+                }
+            }
+
+            String filter = req.getParameter("filter");
+            if (ids != null && filter != null)
+            {
+                writeErrorResponse(resp, 400, "DELETE can use either a JSON array of ids or a filter, but not both");
+                return;
+            }
+            if (ids != null)
+            {
+                // Delete the objects with the supplied ids
+                pm.currentTransaction().begin();
+                long count = deleteObjectsById(pm, classInfo, ids);
+                pm.currentTransaction().commit();
+                resp.setHeader("X-Deleted-Count", "" + count);
+            }
+            else if (id == null && filter != null)
+            {
+                // Delete the objects matching the filter, in the datastore where supported
+                pm.currentTransaction().begin();
+                Query q = pm.newQuery("SELECT FROM " + cmd.getFullClassName() + " WHERE " + URLDecoder.decode(filter, "UTF-8"));
+                long count = q.deletePersistentAll(getQueryParameters(req, q));
+                pm.currentTransaction().commit();
+                resp.setHeader("X-Deleted-Count", "" + count);
+            }
+            else if (id == null)
             {
                 // Delete all objects of this type
                 pm.currentTransaction().begin();
@@ -606,6 +1582,11 @@ public class RestServlet extends HttpServlet
                 pm.currentTransaction().commit();
             }
         }
+        catch (JSONException ex)
+        {
+            writeErrorResponse(resp, 400, ex.getMessage());
+            return;
+        }
         catch (JDOObjectNotFoundException ex)
         {
             try
@@ -670,45 +1651,39 @@ public class RestServlet extends HttpServlet
     protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
     {
         String className = getNextTokenAfterSlash(req);
-        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
-        AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForEntityName(className);
+        ClassMetaDataCache.ClassInfo classInfo;
         try
         {
-            if (cmd == null)
-            {
-                cmd = nucCtx.getMetaDataManager().getMetaDataForClass(className, clr);
-            }
+            classInfo = classMetaDataCache.getClassInfo(className);
         }
         catch (ClassNotResolvedException ex)
         {
             resp.setStatus(404);
             return;
         }
+        AbstractClassMetaData cmd = classInfo.getClassMetaData();
 
-        Object id = getId(req);
+        Object id = getId(req, classInfo);
         if (id == null)
         {
-            // no id provided!
+            // no id provided! so count the extent, rather than retrieving it
             try
             {
-                // get the whole extent
-                String queryString = "SELECT FROM " + cmd.getFullClassName();
-
                 String filterStr = req.getParameter("filter");
                 if (filterStr != null)
                 {
                     // Optional filter
-                    queryString += " WHERE " + URLDecoder.decode(filterStr, "UTF-8");
+                    filterStr = "(" + URLDecoder.decode(filterStr, "UTF-8") + ")";
                 }
 
                 PersistenceManager pm = pmf.getPersistenceManager();
                 try
                 {
-                    pm.currentTransaction().begin();
-                    Query query = pm.newQuery("JDOQL", queryString);
-                    query.execute();
+                    beginRead(pm);
+                    long count = countObjects(pm, cmd, filterStr, req);
+                    resp.setHeader("X-Total-Count", String.valueOf(count));
                     resp.setStatus(200);
-                    pm.currentTransaction().commit();
+                    commitRead(pm);
                 }
                 finally
                 {
@@ -737,13 +1712,51 @@ public class RestServlet extends HttpServlet
             }
         }
 
+        String fetchGroup = req.getParameter("fetchGroup");
+        if (fetchGroup == null)
+        {
+            fetchGroup = req.getParameter("fetch");
+        }
+        String maxFetchDepthStr = req.getParameter("maxFetchDepth");
         PersistenceManager pm = pmf.getPersistenceManager();
         try
         {
-            pm.currentTransaction().begin();
-            pm.getObjectById(id);
+            applyFetchPlan(pm, cmd, req.getParameter("fields"), fetchGroup, (maxFetchDepthStr != null) ? Integer.valueOf(maxFetchDepthStr) : null);
+            beginRead(pm);
+
+            // Probe for the object with a projection on its identity (or version), so it isn't instantiated
+            String queryString = "SELECT " + (cmd.isVersioned() ? "JDOHelper.getVersion(this)" : "JDOHelper.getObjectId(this)") +
+                " FROM " + cmd.getFullClassName() + " WHERE JDOHelper.getObjectId(this) == :id";
+            QueryCache.CachedQuery cachedQuery = getCachedQuery("JDOQL", queryString);
+            Query query = pm.newQuery("JDOQL", (cachedQuery != null) ? cachedQuery.getQueryString() : queryString);
+            List results = (List)executeQuery(query, Collections.singletonMap("id", id));
+            Object version = results.isEmpty() ? null : results.get(0);
+            boolean exists = !results.isEmpty();
+            query.closeAll();
+            commitRead(pm);
+
+            if (!exists)
+            {
+                resp.setStatus(404);
+                return;
+            }
+            if (cmd.isVersioned() && version != null)
+            {
+                String etag = getETag(id, version, pm.getFetchPlan());
+                resp.setHeader("ETag", etag);
+                String ifNoneMatch = req.getHeader("If-None-Match");
+                if (ifNoneMatch != null && matchesETag(ifNoneMatch, etag, false))
+                {
+                    resp.setStatus(304);
+                    return;
+                }
+            }
             resp.setStatus(200);
-            pm.currentTransaction().commit();
+            return;
+        }
+        catch (NucleusUserException ex)
+        {
+            resp.setStatus(400);
             return;
         }
         catch (JDOException ex)
@@ -761,25 +1774,90 @@ public class RestServlet extends HttpServlet
         }
     }
 
+    /**
+     * Method to create the context for serialising the objects of a response to JSON.
+     * @return The serialisation context
+     */
+    private SerialisationContext newSerialisationContext()
+    {
+        return new SerialisationContext(maxSerialisationDepth, serialisationPlans);
+    }
+
+    /**
+     * Method to apply the output specification of the request to the fetch plan of the PersistenceManager.
+     * Any "fields" specification replaces the default fetch group, and any fetch group is then added.
+     * @param pm PersistenceManager
+     * @param cmd Metadata for the candidate class
+     * @param fields Any "fields" specification (or null)
+     * @param fetchGroup Any fetch group (or null)
+     * @param maxFetchDepth Any max fetch depth (or null)
+     * @throws NucleusUserException if the fields specification is invalid
+     */
+    private void applyFetchPlan(PersistenceManager pm, AbstractClassMetaData cmd, String fields, String fetchGroup, Integer maxFetchDepth)
+    {
+        if (fields != null)
+        {
+            fieldsFetchGroups.applyFields(pm, cmd, fields);
+        }
+        if (fetchGroup != null)
+        {
+            pm.getFetchPlan().addGroup(fetchGroup);
+        }
+        if (maxFetchDepth != null)
+        {
+            pm.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
+        }
+    }
+
+    /**
+     * Method to start a read-only operation. When "nontransactional-read" is enabled this doesn't start a transaction,
+     * so a connection is only obtained for each datastore operation (and released after it), rather than being held for
+     * the whole request.
+     * @param pm PersistenceManager
+     */
+    private void beginRead(PersistenceManager pm)
+    {
+        if (nontransactionalRead)
+        {
+            pm.currentTransaction().setNontransactionalRead(true);
+        }
+        else
+        {
+            pm.currentTransaction().begin();
+        }
+    }
+
+    /**
+     * Method to end a read-only operation started by {@link #beginRead(PersistenceManager)}.
+     * @param pm PersistenceManager
+     */
+    private void commitRead(PersistenceManager pm)
+    {
+        if (pm.currentTransaction().isActive())
+        {
+            pm.currentTransaction().commit();
+        }
+    }
+
     /**
      * Convenience accessor to get the persistable id, following a "/" or in the content of the request.
      * @param req The request
+     * @param classInfo Information for the class that the id is for
      * @return The id (or null if not available)
      */
-    private Object getId(HttpServletRequest req)
+    private Object getId(HttpServletRequest req, ClassMetaDataCache.ClassInfo classInfo)
     {
-        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(RestServlet.class.getClassLoader());
+        AbstractClassMetaData cmd = classInfo.getClassMetaData();
         String path = req.getRequestURI().substring(req.getContextPath().length() + req.getServletPath().length());
         StringTokenizer tokenizer = new StringTokenizer(path, "/");
-        String className = tokenizer.nextToken();
-        AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForClass(className, clr);
+        tokenizer.nextToken(); // className
 
         String id = null;
         if (tokenizer.hasMoreTokens())
         {
             // "id" single-field specified in URL
             id = tokenizer.nextToken();
-            if (id == null || cmd == null)
+            if (id == null)
             {
                 return null;
             }
@@ -790,23 +1868,24 @@ public class RestServlet extends HttpServlet
                 return identity;
             }
         }
-
-        // "id" must have been specified in the content of the request
-        try
-        {
-            if (id == null && req.getContentLength() > 0)
-            {
-                char[] buffer = new char[req.getContentLength()];
-                req.getReader().read(buffer);
-                id = new String(buffer);
-            }
-        }
-        catch (IOException e)
+        else
         {
-            throw new RuntimeException(e);
+            // "id" must have been specified in the content of the request
+            id = readRequestBody(req);
         }
 
-        if (id == null || cmd == null)
+        return getIdFromString(id, classInfo);
+    }
+
+    /**
+     * Convenience method to convert an id provided in the request (URL or content) into the id.
+     * @param id The id string, either a JSON object (for an application identity class) or the key
+     * @param classInfo Information for the class that the id is for
+     * @return The id (or null if not available)
+     */
+    private Object getIdFromString(String id, ClassMetaDataCache.ClassInfo classInfo)
+    {
+        if (id == null)
         {
             return null;
         }
@@ -815,8 +1894,11 @@ public class RestServlet extends HttpServlet
         {
             // assume it's a JSONObject
             id = URLDecoder.decode(id, "UTF-8");
-            JSONObject jsonobj = new JSONObject(id);
-            return RESTUtils.getNonPersistableObjectFromJSONObject(jsonobj, clr.classForName(cmd.getObjectidClass()), nucCtx);
+            if (classInfo.getObjectIdClass() != null)
+            {
+                JSONObject jsonobj = new JSONObject(id);
+                return RESTUtils.getNonPersistableObjectFromJSONObject(jsonobj, classInfo.getObjectIdClass(), nucCtx);
+            }
         }
         catch (JSONException ex)
         {
@@ -867,6 +1949,733 @@ public class RestServlet extends HttpServlet
         }
     }
 
+    /**
+     * Method to write an error response, with the message in the "exception" property of a JSONObject.
+     * @param resp The response
+     * @param status The HTTP status
+     * @param message The message
+     * @throws IOException If an error occurs
+     */
+    private void writeErrorResponse(HttpServletResponse resp, int status, String message) throws IOException
+    {
+        try
+        {
+            JSONObject error = new JSONObject();
+            error.put("exception", message);
+            resp.getWriter().write(error.toString());
+            resp.setStatus(status);
+            resp.setHeader("Content-Type", "application/json");
+        }
+        catch (JSONException e)
+        {
+            // will not happen
+        }
+    }
+
+    /**
+     * Method to write a collection of persistable objects to the response as a JSON array, using (GZIP) compression if available.
+     * When streaming results, each element is written as JSON direct to the response as the collection is iterated, without
+     * creating any JSONObject; otherwise the whole JSONArray is built first.
+     * @param resp The response
+     * @param coll The collection of objects
+     * @param ec ExecutionContext
+     * @param useCompression Whether to use compression
+     * @throws IOException If an error occurs
+     */
+    private void writeResponse(HttpServletResponse resp, Collection coll, ExecutionContext ec, boolean useCompression) throws IOException
+    {
+        if (!streamResults)
+        {
+            JSONArray jsonarr = RESTUtils.getJSONArrayFromCollection(coll, ec, newSerialisationContext());
+            writeResponse(resp, jsonarr.toString(), useCompression);
+            return;
+        }
+
+        JSONStreamWriter writer = getStreamWriter(resp, useCompression);
+        try
+        {
+            writer.beginArray();
+            SerialisationContext ctx = newSerialisationContext();
+            Iterator iter = coll.iterator();
+            while (iter.hasNext())
+            {
+                RESTUtils.writeJSONObjectFromPOJO(iter.next(), ec, writer, ctx);
+            }
+            writer.endArray();
+        }
+        catch (NucleusException e)
+        {
+            // Response is already committed so all we can do is log it and abandon the output
+            LOGGER_REST.error("Exception streaming results to response", e);
+            throw new IOException(e);
+        }
+        finally
+        {
+            closeStreamWriter(writer);
+        }
+    }
+
+    /**
+     * Method to write a persistable object to the response as a JSON object, using (GZIP) compression if available.
+     * When streaming results, the object is written as JSON direct to the response, without creating a JSONObject.
+     * @param resp The response
+     * @param pc The persistable object
+     * @param ec ExecutionContext
+     * @param useCompression Whether to use compression
+     * @throws IOException If an error occurs
+     */
+    private void writeObjectResponse(HttpServletResponse resp, Object pc, ExecutionContext ec, boolean useCompression) throws IOException
+    {
+        if (!streamResults)
+        {
+            JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(pc, ec, newSerialisationContext());
+            writeResponse(resp, jsonobj.toString(), useCompression);
+            return;
+        }
+
+        JSONStreamWriter writer = getStreamWriter(resp, useCompression);
+        try
+        {
+            RESTUtils.writeJSONObjectFromPOJO(pc, ec, writer, newSerialisationContext());
+        }
+        catch (NucleusException e)
+        {
+            LOGGER_REST.error("Exception streaming object to response", e);
+            throw new IOException(e);
+        }
+        finally
+        {
+            closeStreamWriter(writer);
+        }
+    }
+
+    /**
+     * Convenience method to create a writer for streaming JSON to the response, with compression when requested.
+     * Since the size is not known up front, this compresses whenever the client allows it.
+     * @param resp The response
+     * @param useCompression Whether to use compression
+     * @return The writer
+     * @throws IOException If an error occurs
+     */
+    private JSONStreamWriter getStreamWriter(HttpServletResponse resp, boolean useCompression) throws IOException
+    {
+        OutputStream out = resp.getOutputStream();
+        if (useCompression)
+        {
+            resp.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        }
+        return new JSONStreamWriter(out);
+    }
+
+    private void closeStreamWriter(JSONStreamWriter writer) throws IOException
+    {
+        writer.close();
+        OutputStream out = writer.getOutputStream();
+        if (out instanceof GZIPOutputStream)
+        {
+            ((GZIPOutputStream)out).finish();
+        }
+    }
+
+    /**
+     * Method to generate the (strong) entity tag for an object with the specified id and version, when output with the
+     * specified fetch plan. Takes the form <pre>"{idhash}-{version}-{fetchplanhash}"</pre> where the version is the number
+     * or timestamp millis when of that type, otherwise a hash of the version.
+     * @param id The identity
+     * @param version The version
+     * @param fetchPlan The fetch plan used for output
+     * @return The ETag (including quotes)
+     */
+    private String getETag(Object id, Object version, FetchPlan fetchPlan)
+    {
+        StringBuilder fpStr = new StringBuilder();
+        for (Object group : new TreeSet(fetchPlan.getGroups()))
+        {
+            fpStr.append(group).append(',');
+        }
+        fpStr.append(fetchPlan.getMaxFetchDepth());
+        return "\"" + getETagIdPart(id) + '-' + getETagVersionPart(version) + '-' + Integer.toHexString(fpStr.toString().hashCode()) + "\"";
+    }
+
+    private String getETagIdPart(Object id)
+    {
+        return Integer.toHexString(id.toString().hashCode());
+    }
+
+    private String getETagVersionPart(Object version)
+    {
+        if (version instanceof Number)
+        {
+            return version.toString();
+        }
+        else if (version instanceof Date)
+        {
+            return "" + ((Date)version).getTime();
+        }
+        return Integer.toHexString(version.toString().hashCode());
+    }
+
+    /**
+     * Method to check whether the current version of the object with the specified id matches an If-Match header.
+     * Since the ETag for a GET includes the fetch plan used, only the identity and version parts of the entity tags are compared.
+     * Doesn't match if the object doesn't exist, or (unless the header is "*") if its class is not versioned.
+     * @param pm PersistenceManager
+     * @param id Identity of the object (or null if not known)
+     * @param ifMatch The If-Match header
+     * @return Whether it matches
+     */
+    private boolean matchesCurrentVersion(PersistenceManager pm, Object id, String ifMatch)
+    {
+        if (id == null)
+        {
+            return false;
+        }
+        Object pc;
+        try
+        {
+            pc = pm.getObjectById(id);
+        }
+        catch (JDOObjectNotFoundException onfe)
+        {
+            return false;
+        }
+
+        Object version = JDOHelper.getVersion(pc);
+        String idPart = getETagIdPart(id);
+        String versionPart = (version != null) ? getETagVersionPart(version) : null;
+        StringTokenizer tokenizer = new StringTokenizer(ifMatch, ",");
+        while (tokenizer.hasMoreTokens())
+        {
+            String tag = tokenizer.nextToken().trim();
+            if (tag.equals("*"))
+            {
+                return true;
+            }
+            if (versionPart == null || tag.startsWith("W/") || tag.length() < 2)
+            {
+                continue;
+            }
+            String[] parts = tag.substring(1, tag.length() - 1).split("-");
+            if (parts.length == 3 && parts[0].equals(idPart) && parts[1].equals(versionPart))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to check whether an ETag matches any of the entity tags in an If-Match/If-None-Match header.
+     * @param header The header value, a comma-separated list of entity tags, or "*"
+     * @param etag The ETag to check
+     * @param strong Whether to use strong comparison (If-Match), otherwise weak comparison (If-None-Match)
+     * @return Whether it matches
+     */
+    private boolean matchesETag(String header, String etag, boolean strong)
+    {
+        StringTokenizer tokenizer = new StringTokenizer(header, ",");
+        while (tokenizer.hasMoreTokens())
+        {
+            String tag = tokenizer.nextToken().trim();
+            if (tag.equals("*"))
+            {
+                return true;
+            }
+            if (tag.startsWith("W/"))
+            {
+                if (strong)
+                {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convenience accessor for whether the URL has an id token after the class token.
+     * @param req The request
+     * @return Whether an id is specified in the URL
+     */
+    private boolean hasIdInURL(HttpServletRequest req)
+    {
+        String path = req.getRequestURI().substring(req.getContextPath().length() + req.getServletPath().length());
+        return new StringTokenizer(path, "/").countTokens() > 1;
+    }
+
+    /**
+     * Convenience method to read the body of the request into a String.
+     * @param req The request
+     * @return The body, or null if there is no content
+     */
+    private String readRequestBody(HttpServletRequest req)
+    {
+        if (req.getContentLength() == 0)
+        {
+            return null;
+        }
+        try
+        {
+            RequestBodyReader body = getRequestBodyReader(req);
+            try
+            {
+                String str = body.readFully();
+                return (str.trim().length() > 0) ? str : null;
+            }
+            finally
+            {
+                body.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Method to convert the elements of a JSON array of ids into the identities of objects of the specified class.
+     * Each element is either a JSON object (for an application identity class) or the key as used in the URL.
+     * @param ids The ids
+     * @param classInfo Information for the class
+     * @return The identities
+     * @throws JSONException if an element is not valid
+     */
+    private List<Object> getIdentities(JSONArray ids, ClassMetaDataCache.ClassInfo classInfo) throws JSONException
+    {
+        List<Object> identities = new ArrayList<>(ids.length());
+        for (int i = 0; i < ids.length(); i++)
+        {
+            Object idValue = ids.get(i);
+            if (idValue instanceof JSONObject && classInfo.getObjectIdClass() != null && !classInfo.usesSingleFieldIdentity())
+            {
+                identities.add(RESTUtils.getNonPersistableObjectFromJSONObject((JSONObject)idValue, classInfo.getObjectIdClass(), nucCtx));
+            }
+            else
+            {
+                Object identity = RESTUtils.getIdentityForURLToken(classInfo.getClassMetaData(), idValue.toString(), nucCtx);
+                identities.add(identity != null ? identity : idValue);
+            }
+        }
+        return identities;
+    }
+
+    /**
+     * Method to retrieve the objects of the specified class with the supplied ids, and write them to the response.
+     * The objects are found together, so the datastore can fetch them in one round trip, and their fetch plan fields
+     * loaded with retrieveAll. If any are not found then the remainder are found individually to determine which.
+     * The response is a JSON object with "results" being the objects found (in the order of the ids) and "missing" being
+     * the ids that were not found.
+     * @param resp The response
+     * @param classInfo Information for the class
+     * @param ids JSON array of the ids
+     * @param fields Any "fields" specification of the members to output (or null)
+     * @param fetchGroup Any fetch group to use (or null)
+     * @param maxFetchDepth Any max fetch depth to use (or null)
+     * @param compress Whether to compress the response
+     * @throws IOException If an error occurs writing the response
+     */
+    private void writeObjectsById(HttpServletResponse resp, ClassMetaDataCache.ClassInfo classInfo, JSONArray ids,
+            String fields, String fetchGroup, Integer maxFetchDepth, boolean compress) throws IOException
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            applyFetchPlan(pm, classInfo.getClassMetaData(), fields, fetchGroup, maxFetchDepth);
+            List<Object> identities = getIdentities(ids, classInfo);
+            beginRead(pm);
+
+            List<Object> found = new ArrayList<>(identities.size());
+            List<Object> missing = new ArrayList<>();
+            try
+            {
+                found.addAll(pm.getObjectsById(identities, true));
+            }
+            catch (JDOObjectNotFoundException onfe)
+            {
+                // Some are not present, so find individually to determine which
+                found.clear();
+                for (int i = 0; i < identities.size(); i++)
+                {
+                    try
+                    {
+                        found.add(pm.getObjectById(identities.get(i)));
+                    }
+                    catch (JDOObjectNotFoundException onfe2)
+                    {
+                        missing.add(ids.get(i));
+                    }
+                }
+            }
+            pm.retrieveAll(found); // Make sure all fields in FetchPlan are loaded before converting to JSON
+
+            ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+            resp.setHeader("Content-Type", "application/json");
+            resp.setStatus(200);
+            if (streamResults)
+            {
+                JSONStreamWriter writer = getStreamWriter(resp, compress);
+                try
+                {
+                    writer.beginObject();
+                    writer.key("results").beginArray();
+                    SerialisationContext ctx = newSerialisationContext();
+                    for (Object obj : found)
+                    {
+                        RESTUtils.writeJSONObjectFromPOJO(obj, ec, writer, ctx);
+                    }
+                    writer.endArray();
+                    writer.key("missing").value(missing);
+                    writer.endObject();
+                }
+                finally
+                {
+                    closeStreamWriter(writer);
+                }
+            }
+            else
+            {
+                JSONObject jsonobj = new JSONObject();
+                jsonobj.put("results", RESTUtils.getJSONArrayFromCollection(found, ec, newSerialisationContext()));
+                jsonobj.put("missing", new JSONArray(missing));
+                writeResponse(resp, jsonobj.toString(), compress);
+            }
+            commitRead(pm);
+        }
+        catch (JSONException e)
+        {
+            writeErrorResponse(resp, 400, e.getMessage());
+        }
+        catch (JDOUserException | NucleusUserException e)
+        {
+            writeErrorResponse(resp, 400, e.getMessage());
+        }
+        catch (JDOException e)
+        {
+            LOGGER_REST.error("Exception on attempted retrieve by ids : " + e.getMessage(), e);
+            writeErrorResponse(resp, 500, e.getMessage());
+        }
+        finally
+        {
+            if (pm.currentTransaction().isActive())
+            {
+                pm.currentTransaction().rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Method to delete the objects of the specified class with the supplied ids, without fetching them.
+     * For single-field identity this is a query deleting where the PK is in the ids (so the datastore can do it in one statement),
+     * otherwise finds the objects for the ids (skipping any that don't exist) and deletes them together.
+     * @param pm PersistenceManager, with active transaction
+     * @param classInfo Information for the class
+     * @param ids JSON array of the ids
+     * @return The number of objects deleted
+     * @throws JSONException if an id is not valid
+     */
+    private long deleteObjectsById(PersistenceManager pm, ClassMetaDataCache.ClassInfo classInfo, JSONArray ids) throws JSONException
+    {
+        List<Object> identities = getIdentities(ids, classInfo);
+        if (identities.isEmpty())
+        {
+            return 0;
+        }
+
+        AbstractClassMetaData cmd = classInfo.getClassMetaData();
+        if (classInfo.usesSingleFieldIdentity())
+        {
+            List<Object> keys = new ArrayList<>(identities.size());
+            for (Object identity : identities)
+            {
+                keys.add(IdentityUtils.getTargetKeyForSingleFieldIdentity(identity));
+            }
+            String pkName = cmd.getPrimaryKeyMemberNames()[0];
+            Query q = pm.newQuery("SELECT FROM " + cmd.getFullClassName() + " WHERE :ids.contains(" + pkName + ")");
+            return q.deletePersistentAll(Collections.singletonMap("ids", keys));
+        }
+
+        List<Object> objs = new ArrayList<>(identities.size());
+        for (Object identity : identities)
+        {
+            try
+            {
+                objs.add(pm.getObjectById(identity, true));
+            }
+            catch (JDOObjectNotFoundException onfe)
+            {
+                // Not present so nothing to delete
+            }
+        }
+        pm.deletePersistentAll(objs);
+        return objs.size();
+    }
+
+    /**
+     * Convenience method to get a reader for the body of the request, decoding incrementally from the request stream
+     * and applying any maximum body size. Uses the character encoding of the request, defaulting to UTF-8 (as per JSON).
+     * @param req The request
+     * @return The reader
+     * @throws IOException If an error occurs
+     */
+    private RequestBodyReader getRequestBodyReader(HttpServletRequest req) throws IOException
+    {
+        String encoding = req.getCharacterEncoding();
+        Charset charset = (encoding != null) ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+        return new RequestBodyReader(req.getInputStream(), charset, maxBodySize);
+    }
+
+    /**
+     * Convenience accessor for a request parameter that is a non-negative long.
+     * @param req The request
+     * @param name Name of the parameter
+     * @return The value, or null if not specified
+     * @throws NumberFormatException if the value is not a non-negative long
+     */
+    private Long getLongParameter(HttpServletRequest req, String name)
+    {
+        String str = req.getParameter(name);
+        if (str == null)
+        {
+            return null;
+        }
+        Long value = Long.valueOf(str.trim());
+        if (value < 0)
+        {
+            throw new NumberFormatException("Parameter " + name + " cannot be negative");
+        }
+        return value;
+    }
+
+    /**
+     * Accessor for the cache of submitted queries, so that its statistics can be monitored. These count repeated query
+     * strings; see {@link #getQueryCompilationCacheSize()} for the compilations actually held.
+     * @return The query cache (or null if disabled)
+     */
+    public QueryCache getQueryCache()
+    {
+        return queryCache;
+    }
+
+    /**
+     * Accessor for the number of generic query compilations held by the QueryManager compilation cache.
+     * @return The number of compilations (0 if the cache is disabled)
+     */
+    public int getQueryCompilationCacheSize()
+    {
+        QueryCompilationCache compilationCache = nucCtx.getStoreManager().getQueryManager().getQueryCompilationCache();
+        return (compilationCache != null) ? compilationCache.size() : 0;
+    }
+
+    /**
+     * Convenience method to get the cached state for a query string, when the query cache is enabled.
+     * @param language The query language
+     * @param queryString The query string
+     * @return The cached query (or null if not caching)
+     */
+    private QueryCache.CachedQuery getCachedQuery(String language, String queryString)
+    {
+        return (queryCache != null) ? queryCache.getQuery(language, queryString) : null;
+    }
+
+    /**
+     * Method to execute the query with the supplied parameters. Any generic compilation of the same query string is taken
+     * from the QueryManager compilation cache.
+     * @param query The query
+     * @param params Parameter values, keyed by name (or Integer position)
+     * @return The result of the query
+     */
+    private Object executeQuery(Query query, Map params)
+    {
+        return params.isEmpty() ? query.execute() : query.executeWithMap(params);
+    }
+
+    /**
+     * Convenience accessor for the query parameter values specified in the request, as "param.{name}={value}".
+     * A numeric name is taken as a positional parameter (e.g JPQL "?1"). Each value is converted to the type of that parameter
+     * in the compiled query (declared, or inferred from its use in the query), otherwise is passed as the String.
+     * @param req The request
+     * @param query The query the parameters are for (compiled here if any parameters are specified)
+     * @return The parameter values keyed by name/position
+     * @throws JDOUserException if a parameter name is invalid or its value is not valid for the type of the parameter
+     */
+    private Map getQueryParameters(HttpServletRequest req, Query query)
+    {
+        Map params = new HashMap();
+        SymbolTable symtbl = null;
+        Enumeration paramNames = req.getParameterNames();
+        while (paramNames.hasMoreElements())
+        {
+            String paramName = (String)paramNames.nextElement();
+            if (paramName.startsWith("param.") && paramName.length() > 6)
+            {
+                String name = paramName.substring(6);
+                boolean positional = true;
+                for (int i = 0; i < name.length() && positional; i++)
+                {
+                    positional = Character.isDigit(name.charAt(i));
+                }
+                Object key = name;
+                if (positional)
+                {
+                    try
+                    {
+                        key = Integer.valueOf(name);
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                        throw new JDOUserException("Parameter \"" + paramName + "\" is not a valid positional parameter");
+                    }
+                }
+
+                if (symtbl == null)
+                {
+                    query.compile();
+                    QueryCompilation compilation = ((JDOQuery)query).getInternalQuery().getCompilation();
+                    symtbl = (compilation != null && compilation.getSymbolTable() != null) ? compilation.getSymbolTable() : new SymbolTable();
+                }
+                Symbol symbol = symtbl.getSymbol(name);
+                params.put(key, getParameterValue(paramName, req.getParameter(paramName), (symbol != null) ? symbol.getValueType() : null));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Convenience method to convert the String value of a query parameter to the type of the parameter.
+     * Types not handled here (and String/Object) are passed the String as is. "null" gives a null value for all types except String.
+     * @param paramName Name of the request parameter (for any error message)
+     * @param value The String value
+     * @param type Type of the query parameter (or null if not known)
+     * @return The value to use
+     * @throws JDOUserException if the value is not valid for the type
+     */
+    private static Object getParameterValue(String paramName, String value, Class type)
+    {
+        if (type == null || type == String.class || type == Object.class)
+        {
+            return value;
+        }
+        if ("null".equals(value))
+        {
+            return null;
+        }
+
+        try
+        {
+            if (type == Integer.class || type == int.class)
+            {
+                return Integer.valueOf(value.trim());
+            }
+            else if (type == Long.class || type == long.class)
+            {
+                return Long.valueOf(value.trim());
+            }
+            else if (type == Short.class || type == short.class)
+            {
+                return Short.valueOf(value.trim());
+            }
+            else if (type == Byte.class || type == byte.class)
+            {
+                return Byte.valueOf(value.trim());
+            }
+            else if (type == Double.class || type == double.class)
+            {
+                return Double.valueOf(value.trim());
+            }
+            else if (type == Float.class || type == float.class)
+            {
+                return Float.valueOf(value.trim());
+            }
+            else if (type == BigInteger.class)
+            {
+                return new BigInteger(value.trim());
+            }
+            else if (type == BigDecimal.class)
+            {
+                return new BigDecimal(value.trim());
+            }
+            else if (type == Boolean.class || type == boolean.class)
+            {
+                if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))
+                {
+                    return Boolean.valueOf(value);
+                }
+            }
+            else if (type == Character.class || type == char.class)
+            {
+                if (value.length() == 1)
+                {
+                    return Character.valueOf(value.charAt(0));
+                }
+            }
+            else if (type.isEnum())
+            {
+                return Enum.valueOf(type, value);
+            }
+            else
+            {
+                return value;
+            }
+        }
+        catch (IllegalArgumentException iae)
+        {
+            // NumberFormatException, or no such enum constant
+        }
+        throw new JDOUserException("Value of parameter \"" + paramName + "\" is not a valid " + type.getName());
+    }
+
+    /**
+     * Method to count the objects of the candidate class (and subclasses) matching the filter, without retrieving them.
+     * @param pm PersistenceManager
+     * @param cmd Metadata for the candidate class
+     * @param filterStr Any filter (or null)
+     * @param req The request, providing the values of any parameters in the filter
+     * @return The number of objects
+     */
+    private long countObjects(PersistenceManager pm, AbstractClassMetaData cmd, String filterStr, HttpServletRequest req)
+    {
+        String queryString = "SELECT count(this) FROM " + cmd.getFullClassName();
+        if (filterStr != null)
+        {
+            queryString += " WHERE " + filterStr;
+        }
+        QueryCache.CachedQuery cachedQuery = getCachedQuery("JDOQL", queryString);
+        Query query = pm.newQuery("JDOQL", (cachedQuery != null) ? cachedQuery.getQueryString() : queryString);
+        try
+        {
+            Object result = executeQuery(query, getQueryParameters(req, query));
+            return (result != null) ? ((Number)result).longValue() : 0;
+        }
+        finally
+        {
+            query.closeAll();
+        }
+    }
+
+    /**
+     * Convenience method to apply any paging ("offset", "limit") to the query range.
+     * @param query The query
+     * @param offset Number of results to skip (or null)
+     * @param limit Max number of results (or null)
+     */
+    private void applyRange(Query query, Long offset, Long limit)
+    {
+        if (offset != null || limit != null)
+        {
+            long from = (offset != null) ? offset : 0;
+            long to = (limit != null) ? from + limit : Long.MAX_VALUE;
+            query.setRange(from, to);
+        }
+    }
+
     /**
      * Convenience method to get the next token after a "/".
      * @param req The request
@@ -51,6 +51,9 @@ public class FromJSONFieldManager extends AbstractFieldManager
     ExecutionContext ec;
     DNStateManager sm;
 
+    /** Whether this is a partial update (JSON Merge Patch), where a null value means to set the member to null. */
+    boolean patch = false;
+
     /**
      * @param jsonobj The JSON Object that we are processing the values for.
      * @param cmd Metadata for the class
@@ -71,6 +74,40 @@ public class FromJSONFieldManager extends AbstractFieldManager
         this.ec = sm.getExecutionContext();
     }
 
+    /**
+     * @param jsonobj The JSON Object that we are processing the values for.
+     * @param cmd Metadata for the class
+     * @param sm StateManager of the object
+     * @param patch Whether this is a partial update, so a null value for a primitive member is rejected
+     */
+    public FromJSONFieldManager(JSONObject jsonobj, AbstractClassMetaData cmd, DNStateManager sm, boolean patch)
+    {
+        this(jsonobj, cmd, sm);
+        this.patch = patch;
+    }
+
+    /**
+     * Convenience method to check for a null value for a primitive member, which can't be set to null.
+     * With a partial update this is an error, otherwise the member is left with its default value.
+     * @param position Absolute position of the member
+     * @param fieldName Name of the member
+     * @return Whether the value is null
+     * @throws NucleusUserException if the value is null and this is a partial update
+     */
+    private boolean isNullPrimitive(int position, String fieldName)
+    {
+        if (!jsonobj.isNull(fieldName))
+        {
+            return false;
+        }
+        if (patch)
+        {
+            throw new NucleusUserException("Field " + cmd.getMetaDataForManagedMemberAtAbsolutePosition(position).getFullFieldName() +
+                " is primitive so cannot be set to null");
+        }
+        return true;
+    }
+
     public boolean fetchBooleanField(int position)
     {
         String fieldName = cmd.getMetaDataForManagedMemberAtAbsolutePosition(position).getName();
@@ -78,6 +115,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return false;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return false;
+        }
         try
         {
             boolean val = jsonobj.getBoolean(fieldName);
@@ -101,6 +142,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             String str = jsonobj.getString(fieldName);
@@ -129,6 +174,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             String str = jsonobj.getString(fieldName);
@@ -157,6 +206,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             double val = jsonobj.getDouble(fieldName);
@@ -180,6 +233,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             float val = (float) jsonobj.getDouble(fieldName);
@@ -203,6 +260,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             int val = jsonobj.getInt(fieldName);
@@ -226,6 +287,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             long val = jsonobj.getLong(fieldName);
@@ -249,6 +314,10 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return 0;
         }
+        if (isNullPrimitive(position, fieldName))
+        {
+            return 0;
+        }
         try
         {
             short val = (short) jsonobj.getInt(fieldName);
@@ -272,6 +341,14 @@ public class FromJSONFieldManager extends AbstractFieldManager
         {
             return null;
         }
+        if (jsonobj.isNull(fieldName))
+        {
+            if (sm != null)
+            {
+                sm.makeDirty(position);
+            }
+            return null;
+        }
         try
         {
             String val = jsonobj.getString(fieldName);
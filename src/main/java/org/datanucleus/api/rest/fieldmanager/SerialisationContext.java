@@ -0,0 +1,108 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.fieldmanager;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+
+/**
+ * State of the serialisation of a graph of persistable objects to JSON for one response.
+ * Records the objects already output, so that an object reached again (e.g via a bidirectional relation) is output as a
+ * reference rather than recursing, and the depth of relations being followed, so that related objects beyond the max depth
+ * are also output as references. The size of the output is then bounded by the number of distinct objects. The depth is
+ * always limited to {@link #MAX_DEPTH}, even when no max depth is specified, so that a long chain of distinct objects
+ * can't nest the output (and the recursion producing it) without bound.
+ * The objects at the top level of the response are always output in full. The serialisation plans of the classes are
+ * taken from the cache of plans supplied by the owner (e.g the servlet), or otherwise the default cache shared by all contexts.
+ */
+public class SerialisationContext
+{
+    /** Limit on the depth of relations output in full, whatever max depth is specified. */
+    public static final int MAX_DEPTH = 100;
+
+    /** Objects already output, keyed by identity. */
+    final Map<Object, Boolean> visited = new IdentityHashMap<>();
+
+    /** Max depth of relations to output in full. */
+    final int maxDepth;
+
+    int depth = 0;
+
+    final SerialisationPlanCache plans;
+
+    /**
+     * Constructor, for a context using the default (shared) cache of plans.
+     * @param maxDepth Max depth of relations to output in full, or 0 for no limit (other than {@link #MAX_DEPTH})
+     * @param ec ExecutionContext, providing the metadata
+     */
+    public SerialisationContext(int maxDepth, ExecutionContext ec)
+    {
+        this(maxDepth, SerialisationPlanCache.getDefault(ec.getMetaDataManager()));
+    }
+
+    /**
+     * Constructor.
+     * @param maxDepth Max depth of relations to output in full, or 0 for no limit (other than {@link #MAX_DEPTH})
+     * @param plans Cache of the serialisation plans
+     */
+    public SerialisationContext(int maxDepth, SerialisationPlanCache plans)
+    {
+        this.maxDepth = (maxDepth > 0 && maxDepth < MAX_DEPTH) ? maxDepth : MAX_DEPTH;
+        this.plans = plans;
+    }
+
+    /**
+     * Accessor for the serialisation plan for the specified class.
+     * @param cmd Metadata for the class
+     * @param clr ClassLoader resolver
+     * @return The plan
+     */
+    public SerialisationPlan getPlan(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+    {
+        return plans.getPlan(cmd, clr);
+    }
+
+    /**
+     * Method to start the output of an object. If this returns true the object should be output in full, followed by a
+     * call to {@link #endObject()}, otherwise just a reference to the object should be output.
+     * @param obj The object
+     * @return Whether to output the object in full
+     */
+    public boolean startObject(Object obj)
+    {
+        if (depth > 0 && (visited.containsKey(obj) || depth > maxDepth))
+        {
+            return false;
+        }
+        visited.put(obj, Boolean.TRUE);
+        depth++;
+        return true;
+    }
+
+    /**
+     * Method to end the output of an object started with {@link #startObject(Object)}.
+     */
+    public void endObject()
+    {
+        depth--;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.fieldmanager;
+
+import java.nio.charset.StandardCharsets;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.api.rest.orgjson.JSONKeyDictionary;
+import org.datanucleus.api.rest.orgjson.JSONObject;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.RelationType;
+
+/**
+ * Plan for the serialisation of objects of a persistable class to JSON.
+ * Holds, for each member (indexed by absolute field number), the information needed to output its value, so that
+ * converting many objects of the class doesn't require any metadata lookups per field. Plans are built once per class
+ * and cached in a {@link SerialisationPlanCache}.
+ */
+public class SerialisationPlan
+{
+    public enum ContainerType
+    {
+        NONE,
+        COLLECTION,
+        ARRAY,
+        MAP
+    }
+
+    /**
+     * Serialisation information for a member.
+     */
+    public static class MemberPlan
+    {
+        final AbstractMemberMetaData mmd;
+        final String name;
+        final byte[] keyBytes;
+        final RelationType relationType;
+        final boolean singleValuedRelation;
+        final ContainerType containerType;
+        final AbstractClassMetaData elementCmd;
+        final AbstractClassMetaData keyCmd;
+        final AbstractClassMetaData valueCmd;
+
+        MemberPlan(AbstractMemberMetaData mmd, ClassLoaderResolver clr)
+        {
+            this.mmd = mmd;
+            this.name = mmd.getName();
+            this.keyBytes = (JSONObject.quote(name) + ':').getBytes(StandardCharsets.UTF_8);
+            this.relationType = mmd.getRelationType(clr);
+            this.singleValuedRelation = RelationType.isRelationSingleValued(relationType);
+            if (mmd.hasCollection())
+            {
+                containerType = ContainerType.COLLECTION;
+                elementCmd = mmd.getCollection().getElementClassMetaData(clr);
+                keyCmd = null;
+                valueCmd = null;
+            }
+            else if (mmd.hasArray())
+            {
+                containerType = ContainerType.ARRAY;
+                elementCmd = mmd.getArray().getElementClassMetaData(clr);
+                keyCmd = null;
+                valueCmd = null;
+            }
+            else if (mmd.hasMap())
+            {
+                containerType = ContainerType.MAP;
+                elementCmd = null;
+                keyCmd = mmd.getMap().getKeyClassMetaData(clr);
+                valueCmd = mmd.getMap().getValueClassMetaData(clr);
+            }
+            else
+            {
+                containerType = ContainerType.NONE;
+                elementCmd = null;
+                keyCmd = null;
+                valueCmd = null;
+            }
+        }
+
+        public AbstractMemberMetaData getMemberMetaData()
+        {
+            return mmd;
+        }
+
+        /**
+         * Accessor for the name of the member, used as the JSON key.
+         * @return The name
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Accessor for the JSON key for this member, already quoted and escaped and followed by ':', in UTF-8.
+         * @return The key bytes
+         */
+        public byte[] getKeyBytes()
+        {
+            return keyBytes;
+        }
+
+        public RelationType getRelationType()
+        {
+            return relationType;
+        }
+
+        public boolean isSingleValuedRelation()
+        {
+            return singleValuedRelation;
+        }
+
+        public ContainerType getContainerType()
+        {
+            return containerType;
+        }
+
+        /**
+         * Accessor for the metadata of the element of a collection/array member, if persistable.
+         * @return The element metadata (or null)
+         */
+        public AbstractClassMetaData getElementClassMetaData()
+        {
+            return elementCmd;
+        }
+
+        /**
+         * Accessor for the metadata of the key of a map member, if persistable.
+         * @return The key metadata (or null)
+         */
+        public AbstractClassMetaData getKeyClassMetaData()
+        {
+            return keyCmd;
+        }
+
+        /**
+         * Accessor for the metadata of the value of a map member, if persistable.
+         * @return The value metadata (or null)
+         */
+        public AbstractClassMetaData getValueClassMetaData()
+        {
+            return valueCmd;
+        }
+    }
+
+    final AbstractClassMetaData cmd;
+
+    final MemberPlan[] members;
+
+    /** Dictionary of the keys of JSON objects of this class, mapping member names to absolute field numbers. */
+    final JSONKeyDictionary keyDictionary = new JSONKeyDictionary(null, 0);
+
+    SerialisationPlan(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+    {
+        this.cmd = cmd;
+        int numMembers = cmd.getAllMemberPositions().length;
+        this.members = new MemberPlan[numMembers];
+        for (int i = 0; i < numMembers; i++)
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(i);
+            if (mmd != null)
+            {
+                members[i] = new MemberPlan(mmd, clr);
+                keyDictionary.add(mmd.getName(), i);
+            }
+        }
+        keyDictionary.add("class", -1);
+        keyDictionary.add("_id", -1);
+        keyDictionary.add("_version", -1);
+    }
+
+    public AbstractClassMetaData getClassMetaData()
+    {
+        return cmd;
+    }
+
+    /**
+     * Accessor for the dictionary of the keys of JSON objects of this class, for use as the parent of the dictionary
+     * when parsing. The number of a member name is its absolute field number.
+     * @return The key dictionary
+     */
+    public JSONKeyDictionary getKeyDictionary()
+    {
+        return keyDictionary;
+    }
+
+    /**
+     * Accessor for the plan for the member at the specified absolute position.
+     * @param fieldNumber Absolute field number
+     * @return The member plan
+     */
+    public MemberPlan getMember(int fieldNumber)
+    {
+        return members[fieldNumber];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.fieldmanager;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.MetaDataListener;
+import org.datanucleus.metadata.MetaDataManager;
+
+/**
+ * Cache of the serialisation plans of persistable classes, keyed by the class metadata.
+ * The owner of the cache (e.g the servlet for its PMF) should register it as a listener with the MetaDataManager so that
+ * it is cleared whenever metadata is loaded, since plans refer to the metadata of related classes, and should clear it
+ * when finished with so that the metadata (and its class loaders) aren't held.
+ */
+public class SerialisationPlanCache implements MetaDataListener
+{
+    /**
+     * Cache shared by the users without a cache of their own (e.g the convenience methods of RESTUtils). Its plans (and so their
+     * metadata) are held until metadata is next loaded by one of the MetaDataManagers it is registered with.
+     */
+    static final SerialisationPlanCache DEFAULT = new SerialisationPlanCache();
+
+    /** MetaDataManagers that the default cache is registered with as a listener. */
+    static final Set<MetaDataManager> DEFAULT_LISTENED = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    final Map<AbstractClassMetaData, SerialisationPlan> plans = new ConcurrentHashMap<>();
+
+    /** Incremented on each clear so a plan built from metadata that overlapped a metadata change isn't cached. */
+    final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Accessor for the plan for the specified class, building it if not yet cached.
+     * @param cmd Metadata for the class
+     * @param clr ClassLoader resolver
+     * @return The plan
+     */
+    public SerialisationPlan getPlan(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+    {
+        SerialisationPlan plan = plans.get(cmd);
+        if (plan == null)
+        {
+            // Benign race : two threads may build the same plan, and either is fine to use
+            long gen = generation.get();
+            plan = new SerialisationPlan(cmd, clr);
+            if (gen == generation.get())
+            {
+                plans.put(cmd, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Accessor for the cache of plans shared by the users without a cache of their own, registering it as a listener with the
+     * supplied MetaDataManager (if not already) so that it is cleared whenever metadata is loaded.
+     * @param mmgr MetaDataManager providing the metadata of the classes
+     * @return The default cache
+     */
+    public static SerialisationPlanCache getDefault(MetaDataManager mmgr)
+    {
+        if (DEFAULT_LISTENED.add(mmgr))
+        {
+            mmgr.registerListener(DEFAULT);
+        }
+        return DEFAULT;
+    }
+
+    public int getSize()
+    {
+        return plans.size();
+    }
+
+    /**
+     * Method to clear all cached plans.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        plans.clear();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.metadata.MetaDataListener#loaded(org.datanucleus.metadata.AbstractClassMetaData)
+     */
+    public void loaded(AbstractClassMetaData cmd)
+    {
+        clear();
+    }
+}
\ No newline at end of file
@@ -23,16 +23,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.api.rest.RESTUtils;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan.ContainerType;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan.MemberPlan;
 import org.datanucleus.api.rest.orgjson.JSONArray;
 import org.datanucleus.api.rest.orgjson.JSONException;
 import org.datanucleus.api.rest.orgjson.JSONObject;
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.metadata.AbstractMemberMetaData;
-import org.datanucleus.metadata.RelationType;
 import org.datanucleus.store.fieldmanager.AbstractFieldManager;
 
 /**
@@ -43,20 +42,28 @@ public class ToJSONFieldManager extends AbstractFieldManager
     JSONObject jsonobj;
     AbstractClassMetaData cmd;
     ExecutionContext ec;
+    SerialisationPlan plan;
+    SerialisationContext ctx;
 
     public ToJSONFieldManager(JSONObject jsonobj, AbstractClassMetaData cmd, ExecutionContext ec)
+    {
+        this(jsonobj, cmd, ec, new SerialisationContext(0, ec));
+    }
+
+    public ToJSONFieldManager(JSONObject jsonobj, AbstractClassMetaData cmd, ExecutionContext ec, SerialisationContext ctx)
     {
         this.jsonobj = jsonobj;
         this.ec = ec;
         this.cmd = cmd;
+        this.ctx = ctx;
+        this.plan = ctx.getPlan(cmd, ec.getClassLoaderResolver());
     }
 
     public void storeBooleanField(int fieldNumber, boolean value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -65,10 +72,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeByteField(int fieldNumber, byte value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -77,10 +83,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeCharField(int fieldNumber, char value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -89,10 +94,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeDoubleField(int fieldNumber, double value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -101,10 +105,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeFloatField(int fieldNumber, float value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -113,10 +116,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeIntField(int fieldNumber, int value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -125,10 +127,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeLongField(int fieldNumber, long value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -137,10 +138,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
     public void storeShortField(int fieldNumber, short value)
     {
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -154,10 +154,9 @@ public class ToJSONFieldManager extends AbstractFieldManager
             return;
         }
 
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
         try
         {
-            jsonobj.put(mmd.getName(), value);
+            jsonobj.put(plan.getMember(fieldNumber).getName(), value);
         }
         catch (JSONException e)
         {
@@ -171,58 +170,58 @@ public class ToJSONFieldManager extends AbstractFieldManager
             return;
         }
 
-        ClassLoaderResolver clr = ec.getClassLoaderResolver();
-        AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
-        RelationType relationType = mmd.getRelationType(clr);
+        MemberPlan memberPlan = plan.getMember(fieldNumber);
+        String name = memberPlan.getName();
         try
         {
-            if (RelationType.isRelationSingleValued(relationType))
+            if (memberPlan.isSingleValuedRelation())
             {
-                // 1-1/N-1 TODO Prevent recursion
-                JSONObject obj = RESTUtils.getJSONObjectFromPOJO(value, ec);
-                jsonobj.put(mmd.getName(), obj);
+                // 1-1/N-1
+                JSONObject obj = RESTUtils.getJSONObjectFromPOJO(value, ec, ctx);
+                jsonobj.put(name, obj);
             }
-            else if (mmd.hasCollection())
+            else if (memberPlan.getContainerType() == ContainerType.COLLECTION)
             {
-                AbstractClassMetaData elemCmd = mmd.getCollection().getElementClassMetaData(clr);
+                AbstractClassMetaData elemCmd = memberPlan.getElementClassMetaData();
                 JSONArray arr = new JSONArray();
                 Collection collVal = (Collection)value;
                 int i = 0;
                 for (Object elem : collVal)
                 {
-                    if (elemCmd != null)
+                    if (elemCmd != null && elem != null)
                     {
-                        arr.put(i++, RESTUtils.getJSONObjectFromPOJO(elem, ec)); // TODO Prevent recursion
+                        arr.put(i++, RESTUtils.getJSONObjectFromPOJO(elem, ec, ctx));
                     }
                     else
                     {
                         arr.put(i++, elem);
                     }
                 }
-                jsonobj.put(mmd.getName(), arr);
+                jsonobj.put(name, arr);
             }
-            else if (mmd.hasArray())
+            else if (memberPlan.getContainerType() == ContainerType.ARRAY)
             {
-                AbstractClassMetaData elemCmd = mmd.getArray().getElementClassMetaData(clr);
+                AbstractClassMetaData elemCmd = memberPlan.getElementClassMetaData();
                 JSONArray arr = new JSONArray();
-                for (int i=0;i<Array.getLength(value);i++)
+                int length = Array.getLength(value);
+                for (int i=0;i<length;i++)
                 {
                     Object elem = Array.get(value, i);
-                    if (elemCmd != null)
+                    if (elemCmd != null && elem != null)
                     {
-                        arr.put(i++, RESTUtils.getJSONObjectFromPOJO(elem, ec)); // TODO Prevent recursion
+                        arr.put(i, RESTUtils.getJSONObjectFromPOJO(elem, ec, ctx));
                     }
                     else
                     {
-                        arr.put(i++, elem);
+                        arr.put(i, elem);
                     }
                 }
-                jsonobj.put(mmd.getName(), arr);
+                jsonobj.put(name, arr);
             }
-            else if (mmd.hasMap())
+            else if (memberPlan.getContainerType() == ContainerType.MAP)
             {
-                AbstractClassMetaData keyCmd = mmd.getMap().getKeyClassMetaData(clr);
-                AbstractClassMetaData valCmd = mmd.getMap().getValueClassMetaData(clr);
+                AbstractClassMetaData keyCmd = memberPlan.getKeyClassMetaData();
+                AbstractClassMetaData valCmd = memberPlan.getValueClassMetaData();
                 Map jsonMap = new HashMap();
                 Iterator<Map.Entry> mapIter = ((Map)value).entrySet().iterator();
                 while (mapIter.hasNext())
@@ -232,7 +231,7 @@ public class ToJSONFieldManager extends AbstractFieldManager
                     Object val = null;
                     if (keyCmd != null)
                     {
-                        key = RESTUtils.getJSONObjectFromPOJO(entry.getKey(), ec); // TODO Prevent recursion
+                        key = RESTUtils.getJSONObjectFromPOJO(entry.getKey(), ec, ctx);
                     }
                     else
                     {
@@ -241,7 +240,7 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
                     if (valCmd != null)
                     {
-                        val = RESTUtils.getJSONObjectFromPOJO(entry.getValue(), ec); // TODO Prevent recursion
+                        val = RESTUtils.getJSONObjectFromPOJO(entry.getValue(), ec, ctx);
                     }
                     else
                     {
@@ -250,17 +249,17 @@ public class ToJSONFieldManager extends AbstractFieldManager
 
                     jsonMap.put(key, val);
                 }
-                jsonobj.put(mmd.getName(), jsonMap);
+                jsonobj.put(name, jsonMap);
             }
             else
             {
                 // TODO There is no equivalent of RESTUtils.getNonPersistableObjectFromJSONObject so what if one of those types defined there?!
-                jsonobj.put(mmd.getName(), value);
+                jsonobj.put(name, value);
             }
         }
         catch (JSONException jsone)
         {
-            throw new NucleusException("Exception converting value of field " + mmd.getFullFieldName() + " to JSON", jsone);
+            throw new NucleusException("Exception converting value of field " + memberPlan.getMemberMetaData().getFullFieldName() + " to JSON", jsone);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,254 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.fieldmanager;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.rest.JSONStreamWriter;
+import org.datanucleus.api.rest.RESTUtils;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan.ContainerType;
+import org.datanucleus.api.rest.fieldmanager.SerialisationPlan.MemberPlan;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.store.fieldmanager.AbstractFieldManager;
+
+/**
+ * FieldManager to write the values of fields of a persistable object directly to a JSONStreamWriter, as members of the
+ * JSON object currently being written. Equivalent to {@link ToJSONFieldManager} but without building a JSONObject.
+ */
+public class ToJSONStreamFieldManager extends AbstractFieldManager
+{
+    JSONStreamWriter writer;
+    ExecutionContext ec;
+    SerialisationPlan plan;
+    SerialisationContext ctx;
+
+    public ToJSONStreamFieldManager(JSONStreamWriter writer, AbstractClassMetaData cmd, ExecutionContext ec)
+    {
+        this(writer, cmd, ec, new SerialisationContext(0, ec));
+    }
+
+    public ToJSONStreamFieldManager(JSONStreamWriter writer, AbstractClassMetaData cmd, ExecutionContext ec, SerialisationContext ctx)
+    {
+        this.writer = writer;
+        this.ec = ec;
+        this.ctx = ctx;
+        this.plan = ctx.getPlan(cmd, ec.getClassLoaderResolver());
+    }
+
+    public void storeBooleanField(int fieldNumber, boolean value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeByteField(int fieldNumber, byte value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeCharField(int fieldNumber, char value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(String.valueOf(value));
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeDoubleField(int fieldNumber, double value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeFloatField(int fieldNumber, float value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeIntField(int fieldNumber, int value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeLongField(int fieldNumber, long value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeShortField(int fieldNumber, short value)
+    {
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeStringField(int fieldNumber, String value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+
+        try
+        {
+            writer.key(plan.getMember(fieldNumber).getKeyBytes()).value(value);
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + plan.getMember(fieldNumber).getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    public void storeObjectField(int fieldNumber, Object value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+
+        MemberPlan memberPlan = plan.getMember(fieldNumber);
+        try
+        {
+            writer.key(memberPlan.getKeyBytes());
+            if (memberPlan.isSingleValuedRelation())
+            {
+                // 1-1/N-1
+                RESTUtils.writeJSONObjectFromPOJO(value, ec, writer, ctx);
+            }
+            else if (memberPlan.getContainerType() == ContainerType.COLLECTION)
+            {
+                AbstractClassMetaData elemCmd = memberPlan.getElementClassMetaData();
+                writer.beginArray();
+                for (Object elem : (Collection)value)
+                {
+                    writeValue(elem, elemCmd);
+                }
+                writer.endArray();
+            }
+            else if (memberPlan.getContainerType() == ContainerType.ARRAY)
+            {
+                AbstractClassMetaData elemCmd = memberPlan.getElementClassMetaData();
+                writer.beginArray();
+                int length = Array.getLength(value);
+                for (int i=0;i<length;i++)
+                {
+                    writeValue(Array.get(value, i), elemCmd);
+                }
+                writer.endArray();
+            }
+            else if (memberPlan.getContainerType() == ContainerType.MAP)
+            {
+                AbstractClassMetaData keyCmd = memberPlan.getKeyClassMetaData();
+                AbstractClassMetaData valCmd = memberPlan.getValueClassMetaData();
+                writer.beginObject();
+                Iterator<Map.Entry> mapIter = ((Map)value).entrySet().iterator();
+                while (mapIter.hasNext())
+                {
+                    Map.Entry entry = mapIter.next();
+                    if (keyCmd != null)
+                    {
+                        // Persistable key is output as the JSON text of the object, as when building a JSONObject
+                        writer.key(RESTUtils.getJSONObjectFromPOJO(entry.getKey(), ec, ctx).toString());
+                    }
+                    else
+                    {
+                        writer.key(String.valueOf(entry.getKey()));
+                    }
+                    writeValue(entry.getValue(), valCmd);
+                }
+                writer.endObject();
+            }
+            else
+            {
+                // TODO There is no equivalent of RESTUtils.getNonPersistableObjectFromJSONObject so what if one of those types defined there?!
+                writer.value(value);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new NucleusException("Exception writing value of field " + memberPlan.getMemberMetaData().getFullFieldName() + " to JSON", e);
+        }
+    }
+
+    private void writeValue(Object value, AbstractClassMetaData valueCmd) throws IOException
+    {
+        if (valueCmd != null && value != null)
+        {
+            RESTUtils.writeJSONObjectFromPOJO(value, ec, writer, ctx);
+        }
+        else
+        {
+            writer.value(value);
+        }
+    }
+}
\ No newline at end of file
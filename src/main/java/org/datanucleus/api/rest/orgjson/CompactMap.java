@@ -0,0 +1,432 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.orgjson;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map used for the members of a JSONObject, iterating in insertion order so that output is deterministic.
+ * Keys and values are held in parallel arrays, with no entry object per member. While there are few members (as is
+ * usual for JSON objects) a key is found by a linear scan of the arrays. Above a threshold a hash table of positions
+ * in the arrays is added, using open addressing with linear probing, so larger objects still have constant time lookup.
+ */
+class CompactMap extends AbstractMap<Object, Object>
+{
+    /** Number of members above which the hash table is used. */
+    private static final int HASH_THRESHOLD = 8;
+
+    private Object[] keys;
+
+    private Object[] values;
+
+    /** Hash of the key at each position. */
+    private int[] hashes;
+
+    /** Hash table of (position + 1) of the keys, with 0 for an empty slot. Null when at or below the threshold. */
+    private int[] table;
+
+    private int size = 0;
+
+    private int modCount = 0;
+
+    private Set<Map.Entry<Object, Object>> entrySet;
+
+    private Set<Object> keySet;
+
+    CompactMap()
+    {
+        this(4);
+    }
+
+    CompactMap(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+    }
+
+    private static int hash(Object key)
+    {
+        if (key == null)
+        {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Method to find the position of the key in the arrays.
+     * @param key The key
+     * @return The position, or -1 if not present
+     */
+    private int indexOf(Object key)
+    {
+        int h = hash(key);
+        if (table == null)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                Object k = keys[i];
+                if (k == key || (hashes[i] == h && key != null && key.equals(k)))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = table.length - 1;
+        int slot = h & mask;
+        while (true)
+        {
+            int pos = table[slot] - 1;
+            if (pos < 0)
+            {
+                return -1;
+            }
+            Object k = keys[pos];
+            if (k == key || (hashes[pos] == h && key != null && key.equals(k)))
+            {
+                return pos;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Method to (re)build the hash table from the arrays, sized to keep it at most half full.
+     */
+    private void rebuildTable()
+    {
+        int capacity = 16;
+        while (capacity <= size * 2)
+        {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        for (int i = 0; i < size; i++)
+        {
+            addToTable(i);
+        }
+    }
+
+    private void addToTable(int pos)
+    {
+        int mask = table.length - 1;
+        int slot = hashes[pos] & mask;
+        while (table[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = pos + 1;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    public Object get(Object key)
+    {
+        int pos = indexOf(key);
+        return (pos >= 0) ? values[pos] : null;
+    }
+
+    public Object put(Object key, Object value)
+    {
+        int pos = indexOf(key);
+        if (pos >= 0)
+        {
+            Object old = values[pos];
+            values[pos] = value;
+            return old;
+        }
+
+        if (size == keys.length)
+        {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        keys[size] = key;
+        values[size] = value;
+        hashes[size] = hash(key);
+        size++;
+        modCount++;
+
+        if (table != null && size * 2 < table.length)
+        {
+            addToTable(size - 1);
+        }
+        else if (size > HASH_THRESHOLD)
+        {
+            rebuildTable();
+        }
+        return null;
+    }
+
+    public Object remove(Object key)
+    {
+        int pos = indexOf(key);
+        if (pos < 0)
+        {
+            return null;
+        }
+        Object old = values[pos];
+        removeAt(pos);
+        return old;
+    }
+
+    /**
+     * Method to remove the member at a position, moving later members down to keep the insertion order.
+     * @param pos The position
+     */
+    private void removeAt(int pos)
+    {
+        int num = size - pos - 1;
+        if (num > 0)
+        {
+            System.arraycopy(keys, pos + 1, keys, pos, num);
+            System.arraycopy(values, pos + 1, values, pos, num);
+            System.arraycopy(hashes, pos + 1, hashes, pos, num);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
+
+        if (table != null)
+        {
+            if (size > HASH_THRESHOLD)
+            {
+                rebuildTable();
+            }
+            else
+            {
+                table = null;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        table = null;
+        modCount++;
+    }
+
+    public Set<Object> keySet()
+    {
+        if (keySet == null)
+        {
+            keySet = new AbstractSet<Object>()
+            {
+                public Iterator<Object> iterator()
+                {
+                    return new PositionIterator<Object>()
+                    {
+                        Object get(int pos)
+                        {
+                            return keys[pos];
+                        }
+                    };
+                }
+
+                public int size()
+                {
+                    return size;
+                }
+
+                public boolean contains(Object o)
+                {
+                    return containsKey(o);
+                }
+
+                public boolean remove(Object o)
+                {
+                    int pos = indexOf(o);
+                    if (pos < 0)
+                    {
+                        return false;
+                    }
+                    removeAt(pos);
+                    return true;
+                }
+
+                public void clear()
+                {
+                    CompactMap.this.clear();
+                }
+            };
+        }
+        return keySet;
+    }
+
+    public Set<Map.Entry<Object, Object>> entrySet()
+    {
+        if (entrySet == null)
+        {
+            entrySet = new AbstractSet<Map.Entry<Object, Object>>()
+            {
+                public Iterator<Map.Entry<Object, Object>> iterator()
+                {
+                    return new PositionIterator<Map.Entry<Object, Object>>()
+                    {
+                        Map.Entry<Object, Object> get(int pos)
+                        {
+                            return new Entry(pos);
+                        }
+                    };
+                }
+
+                public int size()
+                {
+                    return size;
+                }
+
+                public void clear()
+                {
+                    CompactMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Iterator over the positions of the members, in insertion order.
+     * @param <E> Type of the element returned for a position
+     */
+    private abstract class PositionIterator<E> implements Iterator<E>
+    {
+        int next = 0;
+
+        int last = -1;
+
+        int expectedModCount = modCount;
+
+        abstract E get(int pos);
+
+        public boolean hasNext()
+        {
+            return next < size;
+        }
+
+        public E next()
+        {
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size)
+            {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return get(last);
+        }
+
+        public void remove()
+        {
+            if (last < 0)
+            {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Entry for the member at a position, valid until the map is next structurally modified.
+     */
+    private class Entry implements Map.Entry<Object, Object>
+    {
+        final int pos;
+
+        Entry(int pos)
+        {
+            this.pos = pos;
+        }
+
+        public Object getKey()
+        {
+            return keys[pos];
+        }
+
+        public Object getValue()
+        {
+            return values[pos];
+        }
+
+        public Object setValue(Object value)
+        {
+            Object old = values[pos];
+            values[pos] = value;
+            return old;
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry other = (Map.Entry) obj;
+            Object k = getKey();
+            Object v = getValue();
+            return (k == null ? other.getKey() == null : k.equals(other.getKey())) &&
+                (v == null ? other.getValue() == null : v.equals(other.getValue()));
+        }
+
+        public int hashCode()
+        {
+            Object k = getKey();
+            Object v = getValue();
+            return (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
\ No newline at end of file
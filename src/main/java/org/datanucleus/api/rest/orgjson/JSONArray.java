@@ -25,6 +25,7 @@ SOFTWARE.
 */
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
@@ -776,7 +777,7 @@ public class JSONArray
     {
         try
         {
-            return '[' + join(",") + ']';
+            return write(new StringWriter()).toString();
         }
         catch (Exception e)
         {
@@ -860,19 +861,7 @@ public class JSONArray
                 {
                     writer.write(',');
                 }
-                Object v = this.myArrayList.get(i);
-                if (v instanceof JSONObject)
-                {
-                    ((JSONObject) v).write(writer);
-                }
-                else if (v instanceof JSONArray)
-                {
-                    ((JSONArray) v).write(writer);
-                }
-                else
-                {
-                    writer.write(JSONObject.valueToString(v));
-                }
+                JSONObject.writeValue(this.myArrayList.get(i), writer);
                 b = true;
             }
             writer.write(']');
@@ -0,0 +1,280 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.api.rest.orgjson;
+
+/**
+ * Dictionary of the keys of JSON objects, used by a JSONTokener so that each distinct key is only created once, and
+ * a key found in the dictionary is returned as the canonical instance. Lookups are made directly against the chars
+ * being parsed, so a known key needs no String to be created. Since the canonical instances are what the keys are then
+ * looked up with (e.g the member names of the metadata), a lookup in a JSONObject usually matches by identity.
+ * <p>
+ * A dictionary can be seeded with keys (e.g the member names of a class) together with a number for each (e.g the
+ * absolute field number), and used as the parent of a dictionary for a single parse. Keys not in the parent are then
+ * added to the child, up to a maximum number. A seeded dictionary can be shared between threads as a parent as long as
+ * it is not added to after being seeded, whereas a dictionary that keys are added to is for use by one thread.
+ */
+public class JSONKeyDictionary
+{
+    /** Default maximum number of keys added to a dictionary when parsing, to bound the memory used. */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final JSONKeyDictionary parent;
+
+    private final int maxSize;
+
+    /** Hash table of the keys, using open addressing with linear probing. */
+    private String[] keys = new String[16];
+
+    /** Number for the key in the same slot of the table, or -1. */
+    private int[] numbers = new int[16];
+
+    private int size = 0;
+
+    /**
+     * Constructor for a dictionary with no parent.
+     */
+    public JSONKeyDictionary()
+    {
+        this(null, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor for a dictionary looking up keys in the parent before its own.
+     * @param parent The parent dictionary (or null)
+     * @param maxSize Maximum number of keys that will be added by {@link #resolve(char[], int, int)}
+     */
+    public JSONKeyDictionary(JSONKeyDictionary parent, int maxSize)
+    {
+        this.parent = parent;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Method to add a key with its number, for seeding the dictionary.
+     * @param key The key
+     * @param number Number for the key (e.g the field number), or -1
+     * @return The canonical instance of the key (the existing instance, if already present)
+     */
+    public String add(String key, int number)
+    {
+        int slot = findSlot(key);
+        if (keys[slot] != null)
+        {
+            if (numbers[slot] < 0)
+            {
+                numbers[slot] = number;
+            }
+            return keys[slot];
+        }
+        insert(slot, key, number);
+        return key;
+    }
+
+    /**
+     * Accessor for the number of the key, as added to this dictionary or its parent.
+     * @param key The key
+     * @return The number, or -1 if the key isn't present or has no number
+     */
+    public int getNumber(String key)
+    {
+        if (parent != null)
+        {
+            int number = parent.getNumber(key);
+            if (number >= 0)
+            {
+                return number;
+            }
+        }
+        String[] table = keys;
+        int mask = table.length - 1;
+        for (int slot = key.hashCode() & mask; table[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (table[slot] == key || table[slot].equals(key))
+            {
+                return numbers[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method to return the canonical instance of the key with the specified chars, adding it if not present and the
+     * dictionary isn't full.
+     * @param chars Array holding the chars of the key
+     * @param off Offset of the key in the array
+     * @param len Length of the key
+     * @return The key
+     */
+    String resolve(char[] chars, int off, int len)
+    {
+        int hash = 0;
+        for (int i = off, end = off + len; i < end; i++)
+        {
+            hash = 31 * hash + chars[i];
+        }
+        if (parent != null)
+        {
+            String key = parent.find(chars, off, len, hash);
+            if (key != null)
+            {
+                return key;
+            }
+        }
+
+        String[] table = keys;
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (; table[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (matches(table[slot], hash, chars, off, len))
+            {
+                return table[slot];
+            }
+        }
+        String key = new String(chars, off, len);
+        if (size < maxSize)
+        {
+            insert(slot, key, -1);
+        }
+        return key;
+    }
+
+    /**
+     * Method to return the canonical instance of the key, adding it if not present and the dictionary isn't full.
+     * @param key The key
+     * @return The canonical instance
+     */
+    String resolve(String key)
+    {
+        if (parent != null)
+        {
+            String canonical = parent.find(key);
+            if (canonical != null)
+            {
+                return canonical;
+            }
+        }
+        int slot = findSlot(key);
+        if (keys[slot] != null)
+        {
+            return keys[slot];
+        }
+        if (size < maxSize)
+        {
+            insert(slot, key, -1);
+        }
+        return key;
+    }
+
+    private String find(char[] chars, int off, int len, int hash)
+    {
+        if (parent != null)
+        {
+            String key = parent.find(chars, off, len, hash);
+            if (key != null)
+            {
+                return key;
+            }
+        }
+        String[] table = keys;
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (matches(table[slot], hash, chars, off, len))
+            {
+                return table[slot];
+            }
+        }
+        return null;
+    }
+
+    private String find(String key)
+    {
+        if (parent != null)
+        {
+            String canonical = parent.find(key);
+            if (canonical != null)
+            {
+                return canonical;
+            }
+        }
+        return keys[findSlot(key)];
+    }
+
+    /**
+     * Method to find the slot of the key in the table, or the empty slot where it would be inserted.
+     * @param key The key
+     * @return The slot
+     */
+    private int findSlot(String key)
+    {
+        String[] table = keys;
+        int mask = table.length - 1;
+        int slot = key.hashCode() & mask;
+        while (table[slot] != null && !table[slot].equals(key))
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean matches(String key, int hash, char[] chars, int off, int len)
+    {
+        if (key.hashCode() != hash || key.length() != len)
+        {
+            return false;
+        }
+        for (int i = 0; i < len; i++)
+        {
+            if (key.charAt(i) != chars[off + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, String key, int number)
+    {
+        keys[slot] = key;
+        numbers[slot] = number;
+        size++;
+        if (size * 2 > keys.length)
+        {
+            // Keep the table at most half full
+            String[] oldKeys = keys;
+            int[] oldNumbers = numbers;
+            keys = new String[oldKeys.length * 2];
+            numbers = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != null)
+                {
+                    int newSlot = oldKeys[i].hashCode() & mask;
+                    while (keys[newSlot] != null)
+                    {
+                        newSlot = (newSlot + 1) & mask;
+                    }
+                    keys[newSlot] = oldKeys[i];
+                    numbers[newSlot] = oldNumbers[i];
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -25,12 +25,12 @@ SOFTWARE.
 */
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeSet;
@@ -47,9 +47,13 @@ import java.util.TreeSet;
  * <code>put</code> and <code>toString</code> methods. A <code>get</code> method returns a value if one can be
  * found, and throws an exception if one cannot be found. An <code>opt</code> method returns a default value
  * instead of throwing an exception, and so is useful for obtaining optional values.
+ * <p>
+ * The name/value pairs are held (and output) in the order they were put, in a compact map suited to the small
+ * number of members of most objects.
  */
 public class JSONObject
 {
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
 
     /**
      * JSONObject.NULL is equivalent to the value that JavaScript calls null, whilst Java's null is equivalent
@@ -89,7 +93,7 @@ public class JSONObject
     }
 
     /**
-     * The map where the JSONObject's properties are kept.
+     * The map where the JSONObject's properties are kept, in the order they were put.
      */
     private Map map;
 
@@ -105,7 +109,7 @@ public class JSONObject
      */
     public JSONObject()
     {
-        this.map = new HashMap();
+        this.map = new CompactMap();
     }
 
     /**
@@ -130,8 +134,37 @@ public class JSONObject
      * @throws JSONException If there is a syntax error in the source string or a duplicated key.
      */
     public JSONObject(JSONTokener x) throws JSONException
+    {
+        this(x, false);
+    }
+
+    /**
+     * Construct a JSONObject from a JSONTokener, optionally lazily. When lazy, the text of the object is retained and
+     * the position of each string value is recorded, with the string being skipped (checking its syntax, including its
+     * escapes) rather than created. Such a value is then only decoded when first accessed, so strings that are never used
+     * cost no allocation, and decoding can't fail. Other values are decoded when parsing, so that all errors in the body
+     * (such as a duplicate key in a nested object) are reported by the constructor just as when not lazy.
+     * @param x A JSONTokener object containing the source string.
+     * @param lazy Whether to decode the values only when accessed
+     * @throws JSONException If there is a syntax error in the source string or a duplicated key.
+     */
+    public JSONObject(JSONTokener x, boolean lazy) throws JSONException
     {
         this();
+        if (lazy)
+        {
+            if (x.nextClean() != '{')
+            {
+                throw x.syntaxError("A JSONObject text must begin with '{'");
+            }
+            LazyText text = new LazyText();
+            x.startCapture();
+            parseLazyMembers(x, text);
+            text.chars = x.endCapture();
+            text.keyDictionary = x.getKeyDictionary();
+            return;
+        }
+
         char c;
         String key;
 
@@ -150,7 +183,7 @@ public class JSONObject
                     return;
                 default :
                     x.back();
-                    key = x.nextValue().toString();
+                    key = x.nextKey();
             }
 
             /*
@@ -193,13 +226,141 @@ public class JSONObject
         }
     }
 
+    /**
+     * Method to parse the members of an object lazily, following the '{', recording the position of each value.
+     * @param x The tokener, capturing the text of the object
+     * @param text Holder for the text of the object
+     * @throws JSONException If there is a syntax error or a duplicated key
+     */
+    private void parseLazyMembers(JSONTokener x, LazyText text) throws JSONException
+    {
+        for (;;)
+        {
+            char c = x.nextClean();
+            switch (c)
+            {
+                case 0 :
+                    throw x.syntaxError("A JSONObject text must end with '}'");
+                case '}' :
+                    return;
+                default :
+                    x.back();
+            }
+            String key = x.nextKey();
+
+            c = x.nextClean();
+            if (c == '=')
+            {
+                if (x.next() != '>')
+                {
+                    x.back();
+                }
+            }
+            else if (c != ':')
+            {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+
+            c = x.nextClean();
+            x.back();
+            if (c == '"' || c == '\'')
+            {
+                // String, so record the position of the value and skip it
+                int start = x.getCaptureLength();
+                x.skipValue();
+                if (this.map.containsKey(key))
+                {
+                    throw new JSONException("Duplicate key \"" + key + "\"");
+                }
+                this.map.put(key, new LazyValue(text, start, x.getCaptureLength()));
+            }
+            else
+            {
+                // Object or array, decoded now so that it is fully validated, or a boolean, null or number, which is no
+                // more costly to decode now than to record
+                putOnce(key, x.nextValue());
+            }
+
+            switch (x.nextClean())
+            {
+                case ';' :
+                case ',' :
+                    if (x.nextClean() == '}')
+                    {
+                        return;
+                    }
+                    x.back();
+                    break;
+                case '}' :
+                    return;
+                default :
+                    throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Text of a lazily parsed object, shared by its values.
+     */
+    private static class LazyText
+    {
+        char[] chars;
+
+        /** Dictionary for the keys of nested objects. */
+        JSONKeyDictionary keyDictionary;
+    }
+
+    /**
+     * Value of a lazily parsed object that is yet to be decoded.
+     */
+    private static class LazyValue
+    {
+        final LazyText text;
+        final int start;
+        final int end;
+
+        LazyValue(LazyText text, int start, int end)
+        {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        Object decode() throws JSONException
+        {
+            JSONTokener x = new JSONTokener(text.chars, start, end - start);
+            if (text.keyDictionary != null)
+            {
+                x.setKeyDictionary(text.keyDictionary);
+            }
+            return x.nextValue();
+        }
+    }
+
+    /**
+     * Accessor for the value for a key, decoding it if not yet decoded.
+     * @param key The key
+     * @return The value, or null if there is no value
+     * @throws JSONException If the value is lazy and is malformed
+     */
+    private Object value(Object key) throws JSONException
+    {
+        Object value = this.map.get(key);
+        if (value instanceof LazyValue)
+        {
+            value = ((LazyValue) value).decode();
+            this.map.put(key, value);
+        }
+        return value;
+    }
+
     /**
      * Construct a JSONObject from a Map.
      * @param map A map object that can be used to initialize the contents of the JSONObject.
      */
     public JSONObject(Map map)
     {
-        this.map = (map == null) ? new HashMap() : map;
+        this.map = (map == null) ? new CompactMap() : map;
     }
 
     /**
@@ -209,7 +370,7 @@ public class JSONObject
      */
     public JSONObject(Map map, boolean includeSuperClass)
     {
-        this.map = new HashMap();
+        this.map = new CompactMap();
         if (map != null)
         {
             Iterator i = map.entrySet().iterator();
@@ -483,7 +644,7 @@ public class JSONObject
      */
     public Object get(String key) throws JSONException
     {
-        Object o = opt(key);
+        Object o = (key == null) ? null : value(key);
         if (o == null)
         {
             throw new JSONException("JSONObject[" + quote(key) + "] not found.");
@@ -741,7 +902,15 @@ public class JSONObject
      */
     public Object opt(String key)
     {
-        return key == null ? null : this.map.get(key);
+        try
+        {
+            return key == null ? null : value(key);
+        }
+        catch (JSONException e)
+        {
+            // Lazy values are strings whose syntax was checked when parsing, so should never fail to decode
+            throw new IllegalStateException("Lazy value for key " + key + " failed to decode", e);
+        }
     }
 
     /**
@@ -1031,7 +1200,7 @@ public class JSONObject
     {
         if (key != null && value != null)
         {
-            if (opt(key) != null)
+            if (this.map.containsKey(key))
             {
                 throw new JSONException("Duplicate key \"" + key + "\"");
             }
@@ -1071,61 +1240,107 @@ public class JSONObject
             return "\"\"";
         }
 
-        char b;
-        char c = 0;
-        int i;
-        int len = string.length();
-        StringBuilder sb = new StringBuilder(len + 4);
-        String t;
+        StringBuilder sb = new StringBuilder(string.length() + 4);
+        try
+        {
+            quote(string, sb);
+        }
+        catch (IOException e)
+        {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
 
-        sb.append('"');
-        for (i = 0; i < len; i += 1)
+    /**
+     * Write a string in double quotes with backslash sequences in all the right places, as {@link #quote(String)},
+     * directly to the destination. Runs of chars that don't need escaping are copied in bulk, and no intermediate
+     * strings are created.
+     * @param string A String
+     * @param out The destination
+     * @throws IOException If an error occurs writing to the destination
+     */
+    public static void quote(String string, Appendable out) throws IOException
+    {
+        out.append('"');
+        if (string == null)
         {
-            b = c;
+            out.append('"');
+            return;
+        }
+
+        int len = string.length();
+        int start = 0;
+        char c = 0;
+        for (int i = 0; i < len; i++)
+        {
+            char b = c;
             c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\' && (c != '/' || b != '<') &&
+                (c < '\u0080' || c >= '\u00a0') && (c < '\u2000' || c >= '\u2100'))
+            {
+                continue;
+            }
+
+            appendRun(string, start, i, out);
+            start = i + 1;
+            out.append('\\');
             switch (c)
             {
                 case '\\' :
                 case '"' :
-                    sb.append('\\');
-                    sb.append(c);
-                    break;
                 case '/' :
-                    if (b == '<')
-                    {
-                        sb.append('\\');
-                    }
-                    sb.append(c);
+                    out.append(c);
                     break;
                 case '\b' :
-                    sb.append("\\b");
+                    out.append('b');
                     break;
                 case '\t' :
-                    sb.append("\\t");
+                    out.append('t');
                     break;
                 case '\n' :
-                    sb.append("\\n");
+                    out.append('n');
                     break;
                 case '\f' :
-                    sb.append("\\f");
+                    out.append('f');
                     break;
                 case '\r' :
-                    sb.append("\\r");
+                    out.append('r');
                     break;
                 default :
-                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100'))
-                    {
-                        t = "000" + Integer.toHexString(c);
-                        sb.append("\\u" + t.substring(t.length() - 4));
-                    }
-                    else
-                    {
-                        sb.append(c);
-                    }
+                    out.append('u');
+                    out.append(HEX_CHARS[(c >> 12) & 0xF]);
+                    out.append(HEX_CHARS[(c >> 8) & 0xF]);
+                    out.append(HEX_CHARS[(c >> 4) & 0xF]);
+                    out.append(HEX_CHARS[c & 0xF]);
+            }
+        }
+        appendRun(string, start, len, out);
+        out.append('"');
+    }
+
+    /**
+     * Convenience method to copy a range of chars of a string to the destination. A Writer is written to directly since
+     * its append of a range creates a substring.
+     * @param string The string
+     * @param start Start of the range
+     * @param end End of the range (exclusive)
+     * @param out The destination
+     * @throws IOException If an error occurs writing to the destination
+     */
+    private static void appendRun(String string, int start, int end, Appendable out) throws IOException
+    {
+        if (end > start)
+        {
+            if (out instanceof Writer)
+            {
+                ((Writer) out).write(string, start, end - start);
+            }
+            else
+            {
+                out.append(string, start, end);
             }
         }
-        sb.append('"');
-        return sb.toString();
     }
 
     /**
@@ -1135,7 +1350,9 @@ public class JSONObject
      */
     public Object remove(String key)
     {
-        return this.map.remove(key);
+        Object value = opt(key);
+        this.map.remove(key);
+        return value;
     }
 
     /**
@@ -1289,22 +1506,7 @@ public class JSONObject
     {
         try
         {
-            Iterator keys = keys();
-            StringBuilder sb = new StringBuilder("{");
-
-            while (keys.hasNext())
-            {
-                if (sb.length() > 1)
-                {
-                    sb.append(',');
-                }
-                Object o = keys.next();
-                sb.append(quote(o.toString()));
-                sb.append(':');
-                sb.append(valueToString(this.map.get(o)));
-            }
-            sb.append('}');
-            return sb.toString();
+            return write(new StringWriter()).toString();
         }
         catch (Exception e)
         {
@@ -1355,7 +1557,7 @@ public class JSONObject
             o = keys.next();
             sb.append(quote(o.toString()));
             sb.append(": ");
-            sb.append(valueToString(this.map.get(o), indentFactor, indent));
+            sb.append(valueToString(value(o), indentFactor, indent));
         }
         else
         {
@@ -1376,7 +1578,7 @@ public class JSONObject
                 }
                 sb.append(quote(o.toString()));
                 sb.append(": ");
-                sb.append(valueToString(this.map.get(o), indentFactor, newindent));
+                sb.append(valueToString(value(o), indentFactor, newindent));
             }
             if (sb.length() > 1)
             {
@@ -1517,6 +1719,34 @@ public class JSONObject
         return quote(value.toString());
     }
 
+    /**
+     * Write the JSON text of a value to the writer, as {@link #valueToString(Object)} but with objects, arrays and
+     * strings written directly rather than via an intermediate string.
+     * @param value The value to be serialized.
+     * @param writer The writer
+     * @throws JSONException If the value is or contains an invalid number.
+     * @throws IOException If an error occurs writing
+     */
+    static void writeValue(Object value, Writer writer) throws JSONException, IOException
+    {
+        if (value instanceof JSONObject)
+        {
+            ((JSONObject) value).write(writer);
+        }
+        else if (value instanceof JSONArray)
+        {
+            ((JSONArray) value).write(writer);
+        }
+        else if (value instanceof String)
+        {
+            quote((String) value, writer);
+        }
+        else
+        {
+            writer.write(valueToString(value));
+        }
+    }
+
     public Writer write(Writer writer) throws JSONException
     {
         try
@@ -1532,21 +1762,9 @@ public class JSONObject
                     writer.write(',');
                 }
                 Object k = keys.next();
-                writer.write(quote(k.toString()));
+                quote(k.toString(), writer);
                 writer.write(':');
-                Object v = this.map.get(k);
-                if (v instanceof JSONObject)
-                {
-                    ((JSONObject) v).write(writer);
-                }
-                else if (v instanceof JSONArray)
-                {
-                    ((JSONArray) v).write(writer);
-                }
-                else
-                {
-                    writer.write(valueToString(v));
-                }
+                writeValue(value(k), writer);
                 b = true;
             }
             writer.write('}');
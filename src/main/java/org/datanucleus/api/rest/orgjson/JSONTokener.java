@@ -1,9 +1,8 @@
 package org.datanucleus.api.rest.orgjson;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
+import java.util.Arrays;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -32,19 +31,60 @@ SOFTWARE.
 /**
  * A JSONTokener takes a source string and extracts characters and tokens from it. It is used by the
  * JSONObject and JSONArray constructors to parse JSON source strings.
+ * The source is read in blocks into a char window (taken from a per-thread pool, and returned when the end of the source
+ * is reached), and tokens are scanned directly in the window, so unescaped runs of strings are copied in one go and
+ * numbers are parsed without going through intermediate Strings.
  * @author JSON.org
  * @version 2008-09-18
  */
 public class JSONTokener
 {
+    private static final int WINDOW_SIZE = 8192;
 
-    private int index;
+    /** Window released by the last tokener to reach the end of its source on this thread. */
+    private static final ThreadLocal<char[]> windows = new ThreadLocal<>();
 
+    /** Exact powers of ten, for converting decimals with few significant digits. */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+        1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /** Source when reading from a Reader (otherwise null). */
     private Reader reader;
 
-    private char lastChar;
+    /** Source when reading from a String (otherwise null). */
+    private String source;
+
+    /** Position of the next char to copy from the String source. */
+    private int sourcePos;
+
+    private char[] buf;
+
+    /** Position of the next char in the window. */
+    private int pos;
+
+    /** Number of valid chars in the window. */
+    private int limit;
+
+    /** Number of chars of the source before the start of the window. */
+    private int offset;
+
+    /** Position in the window from which chars must be retained when refilling, or -1. */
+    private int mark = -1;
 
-    private boolean useLastChar;
+    /** Whether the end of the source has been reached. */
+    private boolean eof;
+
+    /** Whether the last call to next() was at the end of the source. */
+    private boolean lastAtEnd;
+
+    /** Whether back() has been called since the last char was consumed. */
+    private boolean backed;
+
+    /** Dictionary resolving the keys of objects to canonical instances, created when first needed if not set. */
+    private JSONKeyDictionary keyDictionary;
+
+    /** Whether the window can be returned to the pool (not when it is a char array being parsed in place). */
+    private boolean poolWindow = true;
 
     /**
      * Construct a JSONTokener from a string.
@@ -52,9 +92,8 @@ public class JSONTokener
      */
     public JSONTokener(Reader reader)
     {
-        this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
-        this.useLastChar = false;
-        this.index = 0;
+        this.reader = reader;
+        this.buf = takeWindow();
     }
 
     /**
@@ -63,7 +102,132 @@ public class JSONTokener
      */
     public JSONTokener(String s)
     {
-        this(new StringReader(s));
+        this.source = s;
+        if (s.length() <= WINDOW_SIZE)
+        {
+            // Small enough to use directly as the window
+            this.buf = s.toCharArray();
+            this.limit = buf.length;
+            this.sourcePos = s.length();
+        }
+        else
+        {
+            this.buf = takeWindow();
+        }
+    }
+
+    /**
+     * Construct a JSONTokener for a range of a char array, parsing the chars in place. The array is not modified.
+     * @param chars The chars
+     * @param off Offset of the source in the array
+     * @param len Length of the source
+     */
+    JSONTokener(char[] chars, int off, int len)
+    {
+        this.buf = chars;
+        this.pos = off;
+        this.limit = off + len;
+        this.offset = -off;
+        this.eof = true;
+        this.poolWindow = false;
+    }
+
+    private static char[] takeWindow()
+    {
+        char[] window = windows.get();
+        if (window == null)
+        {
+            return new char[WINDOW_SIZE];
+        }
+        windows.set(null);
+        return window;
+    }
+
+    /**
+     * Method to read more of the source into the window, retaining the last char consumed (so that back() is possible)
+     * and any chars from the mark. When the end of the source is reached, the window is returned to the pool.
+     * @return Whether any more chars were read
+     * @throws JSONException if an error occurs reading the source
+     */
+    private boolean fill() throws JSONException
+    {
+        if (eof)
+        {
+            return false;
+        }
+
+        int keep = (mark >= 0) ? mark : Math.max(pos - 1, 0);
+        int kept = limit - keep;
+        if (keep > 0)
+        {
+            System.arraycopy(buf, keep, buf, 0, kept);
+        }
+        else if (kept == buf.length)
+        {
+            // Marked chars fill the window, so grow it
+            char[] newBuf = new char[buf.length * 2];
+            System.arraycopy(buf, 0, newBuf, 0, kept);
+            buf = newBuf;
+        }
+        offset += keep;
+        pos -= keep;
+        limit = kept;
+        if (mark >= 0)
+        {
+            mark = 0;
+        }
+
+        int num;
+        if (reader != null)
+        {
+            try
+            {
+                num = reader.read(buf, limit, buf.length - limit);
+            }
+            catch (IOException exc)
+            {
+                throw new JSONException(exc);
+            }
+        }
+        else
+        {
+            num = Math.min(source.length() - sourcePos, buf.length - limit);
+            source.getChars(sourcePos, sourcePos + num, buf, limit);
+            sourcePos += num;
+        }
+
+        if (num <= 0)
+        {
+            eof = true;
+            if (mark < 0)
+            {
+                releaseWindow();
+            }
+            return false;
+        }
+        limit += num;
+        return true;
+    }
+
+    /**
+     * Method to return the window to the pool at the end of the source, keeping just the last char for back().
+     */
+    private void releaseWindow()
+    {
+        if (poolWindow && buf.length == WINDOW_SIZE)
+        {
+            windows.set(buf);
+        }
+        int keep = Math.min(pos, 1);
+        char[] last = new char[keep];
+        if (keep > 0)
+        {
+            last[0] = buf[pos - 1];
+        }
+        offset += pos - keep;
+        buf = last;
+        pos = keep;
+        limit = keep;
     }
 
     /**
@@ -73,12 +237,15 @@ public class JSONTokener
      */
     public void back() throws JSONException
     {
-        if (useLastChar || index <= 0)
+        if (backed || (pos <= 0 && !lastAtEnd))
         {
             throw new JSONException("Stepping back two steps is not supported");
         }
-        index -= 1;
-        useLastChar = true;
+        backed = true;
+        if (!lastAtEnd)
+        {
+            pos--;
+        }
     }
 
     /**
@@ -126,33 +293,22 @@ public class JSONTokener
      */
     public char next() throws JSONException
     {
-        if (this.useLastChar)
-        {
-            this.useLastChar = false;
-            if (this.lastChar != 0)
-            {
-                this.index += 1;
-            }
-            return this.lastChar;
-        }
-        int c;
-        try
+        backed = false;
+        if (pos >= limit && !fill())
         {
-            c = this.reader.read();
+            lastAtEnd = true;
+            return 0;
         }
-        catch (IOException exc)
+        char c = buf[pos];
+        if (c == 0)
         {
-            throw new JSONException(exc);
-        }
-
-        if (c <= 0)
-        { // End of stream
-            this.lastChar = 0;
+            // Treat a NUL char as the end of the source
+            lastAtEnd = true;
             return 0;
         }
-        this.index += 1;
-        this.lastChar = (char) c;
-        return this.lastChar;
+        lastAtEnd = false;
+        pos++;
+        return c;
     }
 
     /**
@@ -185,37 +341,22 @@ public class JSONTokener
             return "";
         }
 
-        char[] buffer = new char[n];
-        int pos = 0;
-
-        if (this.useLastChar)
-        {
-            this.useLastChar = false;
-            buffer[0] = this.lastChar;
-            pos = 1;
-        }
-
-        try
+        char[] chars = new char[n];
+        int num = 0;
+        while (num < n)
         {
-            int len;
-            while ((pos < n) && ((len = reader.read(buffer, pos, n - pos)) != -1))
+            if (pos >= limit && !fill())
             {
-                pos += len;
+                throw syntaxError("Substring bounds error");
             }
+            int len = Math.min(n - num, limit - pos);
+            System.arraycopy(buf, pos, chars, num, len);
+            pos += len;
+            num += len;
         }
-        catch (IOException exc)
-        {
-            throw new JSONException(exc);
-        }
-        this.index += pos;
-
-        if (pos < n)
-        {
-            throw syntaxError("Substring bounds error");
-        }
-
-        this.lastChar = buffer[n - 1];
-        return new String(buffer);
+        backed = false;
+        lastAtEnd = false;
+        return new String(chars);
     }
 
     /**
@@ -227,14 +368,84 @@ public class JSONTokener
     {
         for (;;)
         {
-            char c = next();
-            if (c == 0 || c > ' ')
+            while (pos < limit)
             {
-                return c;
+                char c = buf[pos];
+                if (c > ' ')
+                {
+                    pos++;
+                    backed = false;
+                    lastAtEnd = false;
+                    return c;
+                }
+                if (c == 0)
+                {
+                    return next();
+                }
+                pos++;
+            }
+            if (!fill())
+            {
+                return next();
             }
         }
     }
 
+    /**
+     * Set the dictionary to resolve the keys of objects with, for example one with a parent seeded with the member
+     * names of the class being parsed. The dictionary is added to, so must not be in use by another thread.
+     * @param keyDictionary The dictionary
+     */
+    public void setKeyDictionary(JSONKeyDictionary keyDictionary)
+    {
+        this.keyDictionary = keyDictionary;
+    }
+
+    JSONKeyDictionary getKeyDictionary()
+    {
+        return keyDictionary;
+    }
+
+    /**
+     * Return the next key of an object, resolved through the key dictionary so that a repeated key is the same
+     * instance each time. A quoted key with no escapes is looked up directly in the window, so a known key doesn't
+     * require a String to be created. An unquoted key is tolerated, as for values.
+     * @return The key
+     * @throws JSONException If the key is malformed
+     */
+    public String nextKey() throws JSONException
+    {
+        char quote = nextClean();
+        if (quote != '"' && quote != '\'')
+        {
+            back();
+            return nextValue().toString();
+        }
+        if (keyDictionary == null)
+        {
+            keyDictionary = new JSONKeyDictionary();
+        }
+
+        int end = pos;
+        while (end < limit)
+        {
+            char c = buf[end];
+            if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0)
+            {
+                break;
+            }
+            end++;
+        }
+        if (end < limit && buf[end] == quote)
+        {
+            // Whole key is in the window with no escapes
+            String key = keyDictionary.resolve(buf, pos, end - pos);
+            pos = end + 1;
+            return key;
+        }
+        return keyDictionary.resolve(nextString(quote));
+    }
+
     /**
      * Return the characters up to the next close quote character. Backslash processing is done. The formal
      * JSON format does not allow strings in single quotes, but an implementation is allowed to accept them.
@@ -245,56 +456,109 @@ public class JSONTokener
      */
     public String nextString(char quote) throws JSONException
     {
-        char c;
-        StringBuilder sb = new StringBuilder();
+        backed = false;
+        lastAtEnd = false;
+        StringBuilder sb = null;
         for (;;)
         {
+            // Scan the run of chars needing no processing
+            int start = pos;
+            while (pos < limit)
+            {
+                char c = buf[pos];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0)
+                {
+                    break;
+                }
+                pos++;
+            }
+
+            if (pos < limit && buf[pos] == quote && sb == null)
+            {
+                // Whole string is in the window with no escapes
+                String str = new String(buf, start, pos - start);
+                pos++;
+                return str;
+            }
+
+            if (sb == null)
+            {
+                sb = new StringBuilder(Math.max(16, 2 * (pos - start)));
+            }
+            sb.append(buf, start, pos - start);
+            if (pos >= limit)
+            {
+                if (!fill())
+                {
+                    throw syntaxError("Unterminated string");
+                }
+                continue;
+            }
+
+            char c = buf[pos++];
+            if (c == quote)
+            {
+                return sb.toString();
+            }
+            if (c != '\\')
+            {
+                pos--;
+                throw syntaxError("Unterminated string");
+            }
+
             c = next();
             switch (c)
             {
+                case 'b' :
+                    sb.append('\b');
+                    break;
+                case 't' :
+                    sb.append('\t');
+                    break;
+                case 'n' :
+                    sb.append('\n');
+                    break;
+                case 'f' :
+                    sb.append('\f');
+                    break;
+                case 'r' :
+                    sb.append('\r');
+                    break;
+                case 'u' :
+                    sb.append(nextHexChar(4));
+                    break;
+                case 'x' :
+                    sb.append(nextHexChar(2));
+                    break;
                 case 0 :
-                case '\n' :
-                case '\r' :
                     throw syntaxError("Unterminated string");
-                case '\\' :
-                    c = next();
-                    switch (c)
-                    {
-                        case 'b' :
-                            sb.append('\b');
-                            break;
-                        case 't' :
-                            sb.append('\t');
-                            break;
-                        case 'n' :
-                            sb.append('\n');
-                            break;
-                        case 'f' :
-                            sb.append('\f');
-                            break;
-                        case 'r' :
-                            sb.append('\r');
-                            break;
-                        case 'u' :
-                            sb.append((char) Integer.parseInt(next(4), 16));
-                            break;
-                        case 'x' :
-                            sb.append((char) Integer.parseInt(next(2), 16));
-                            break;
-                        default :
-                            sb.append(c);
-                    }
-                    break;
                 default :
-                    if (c == quote)
-                    {
-                        return sb.toString();
-                    }
                     sb.append(c);
             }
         }
     }
 
+    /**
+     * Method to read the specified number of hex digits, returning the char with that code.
+     * @param numDigits Number of hex digits
+     * @return The char
+     * @throws JSONException if there are not enough hex digits
+     */
+    private char nextHexChar(int numDigits) throws JSONException
+    {
+        int value = 0;
+        for (int i = 0; i < numDigits; i++)
+        {
+            int digit = dehexchar(next());
+            if (digit < 0)
+            {
+                throw syntaxError("Illegal escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char)value;
+    }
+
     /**
      * Get the text up but not including the specified character or the end of line, whichever comes first.
      * @param d A delimiter character.
@@ -354,7 +618,6 @@ public class JSONTokener
     public Object nextValue() throws JSONException
     {
         char c = nextClean();
-        String s;
 
         switch (c)
         {
@@ -375,21 +638,217 @@ public class JSONTokener
          * implementation (such as this one) is allowed to also accept non-standard forms. Accumulate
          * characters until we reach the end of the text or a formatting character.
          */
-
-        StringBuilder sb = new StringBuilder();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0)
+        if (c == 0)
         {
-            sb.append(c);
-            c = next();
+            throw syntaxError("Missing value");
+        }
+        pos--;
+        int outerMark = mark;
+        if (outerMark < 0)
+        {
+            mark = pos;
+        }
+        int tokenStart = pos - mark;
+        for (;;)
+        {
+            if (pos >= limit && !fill())
+            {
+                break;
+            }
+            c = buf[pos];
+            if (c < ' ' || ",:]}/\\\"[{;=#".indexOf(c) >= 0)
+            {
+                break;
+            }
+            pos++;
+        }
+        int start = mark + tokenStart;
+        if (outerMark < 0)
+        {
+            mark = -1;
         }
-        back();
 
-        s = sb.toString().trim();
-        if (s.equals(""))
+        // Trim the token
+        int end = pos;
+        while (start < end && buf[start] <= ' ')
+        {
+            start++;
+        }
+        while (end > start && buf[end - 1] <= ' ')
+        {
+            end--;
+        }
+        if (start == end)
         {
             throw syntaxError("Missing value");
         }
-        return JSONObject.stringToValue(s);
+        Object value = parseUnquoted(buf, start, end - start);
+        if (mark < 0 && eof && pos >= limit)
+        {
+            // Reached the end of the source while marked, so the window wasn't released
+            releaseWindow();
+        }
+        return value;
+    }
+
+    /**
+     * Method to convert unquoted text into a boolean, null or number, as per JSONObject.stringToValue. Numbers in
+     * standard decimal form are parsed directly from the chars, and anything else is passed to stringToValue.
+     * @param chars The chars
+     * @param off Offset of the text
+     * @param len Length of the text
+     * @return The value
+     */
+    static Object parseUnquoted(char[] chars, int off, int len)
+    {
+        char b = chars[off];
+        if (len == 4)
+        {
+            if (regionMatchesIgnoreCase(chars, off, "true"))
+            {
+                return Boolean.TRUE;
+            }
+            if (regionMatchesIgnoreCase(chars, off, "null"))
+            {
+                return JSONObject.NULL;
+            }
+        }
+        else if (len == 5 && regionMatchesIgnoreCase(chars, off, "false"))
+        {
+            return Boolean.FALSE;
+        }
+        if (!((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') || (b == '0' && len > 1 && isIntegerForm(chars, off, len)))
+        {
+            // Not a number, or leading zero (octal) form, so leave to the general conversion
+            return JSONObject.stringToValue(new String(chars, off, len));
+        }
+
+        // Parse [sign] digits [. digits] [e [sign] digits]
+        int end = off + len;
+        int i = off;
+        boolean negative = false;
+        if (b == '-' || b == '+')
+        {
+            negative = (b == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        boolean decimal = false;
+        while (i < end && chars[i] >= '0' && chars[i] <= '9')
+        {
+            if (significantDigits > 0 || chars[i] != '0')
+            {
+                significantDigits++;
+            }
+            if (significantDigits <= 18)
+            {
+                mantissa = mantissa * 10 + (chars[i] - '0');
+            }
+            numDigits++;
+            i++;
+        }
+        if (i < end && chars[i] == '.')
+        {
+            decimal = true;
+            i++;
+            while (i < end && chars[i] >= '0' && chars[i] <= '9')
+            {
+                if (significantDigits > 0 || chars[i] != '0')
+                {
+                    significantDigits++;
+                }
+                if (significantDigits <= 18)
+                {
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    fractionDigits++;
+                }
+                numDigits++;
+                i++;
+            }
+        }
+        int exponent = 0;
+        if (numDigits > 0 && i < end && (chars[i] == 'e' || chars[i] == 'E'))
+        {
+            decimal = true;
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+'))
+            {
+                negativeExponent = (chars[i] == '-');
+                i++;
+            }
+            int expStart = i;
+            while (i < end && chars[i] >= '0' && chars[i] <= '9' && i - expStart < 6)
+            {
+                exponent = exponent * 10 + (chars[i] - '0');
+                i++;
+            }
+            if (i == expStart)
+            {
+                // No exponent digits
+                return JSONObject.stringToValue(new String(chars, off, len));
+            }
+            if (negativeExponent)
+            {
+                exponent = -exponent;
+            }
+        }
+        if (numDigits == 0 || i != end)
+        {
+            // Not standard decimal form (e.g hex, type suffix, embedded space)
+            return JSONObject.stringToValue(new String(chars, off, len));
+        }
+
+        if (!decimal)
+        {
+            if (significantDigits > 18)
+            {
+                // Possibly beyond the range of long, so leave to the general conversion
+                return JSONObject.stringToValue(new String(chars, off, len));
+            }
+            long value = negative ? -mantissa : mantissa;
+            if (value == (int)value)
+            {
+                return Integer.valueOf((int)value);
+            }
+            return Long.valueOf(value);
+        }
+
+        int scale = exponent - fractionDigits;
+        if (significantDigits <= 15 && scale >= -22 && scale <= 22)
+        {
+            // Mantissa and power of ten are both exact, so one operation gives the correctly rounded result
+            double value = (scale >= 0) ? mantissa * POWERS_OF_TEN[scale] : mantissa / POWERS_OF_TEN[-scale];
+            return Double.valueOf(negative ? -value : value);
+        }
+        return Double.valueOf(new String(chars, off, len));
+    }
+
+    private static boolean isIntegerForm(char[] chars, int off, int len)
+    {
+        for (int i = off; i < off + len; i++)
+        {
+            if (chars[i] == '.' || chars[i] == 'e' || chars[i] == 'E')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatchesIgnoreCase(char[] chars, int off, String str)
+    {
+        for (int i = 0; i < str.length(); i++)
+        {
+            if (Character.toLowerCase(chars[off + i]) != str.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -401,30 +860,273 @@ public class JSONTokener
      */
     public char skipTo(char to) throws JSONException
     {
-        char c;
-        try
+        mark = pos;
+        for (;;)
         {
-            int startIndex = this.index;
-            reader.mark(Integer.MAX_VALUE);
-            do
+            if (pos >= limit && !fill())
             {
-                c = next();
-                if (c == 0)
+                pos = mark;
+                mark = -1;
+                return 0;
+            }
+            char c = buf[pos];
+            if (c == 0)
+            {
+                pos = mark;
+                mark = -1;
+                return 0;
+            }
+            if (c == to)
+            {
+                mark = -1;
+                backed = false;
+                lastAtEnd = false;
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Skip the next value, checking its syntax as {@link #nextValue()} would, but without creating it. Duplicate
+     * keys within an object are not detected.
+     * @throws JSONException If the value is malformed
+     */
+    public void skipValue() throws JSONException
+    {
+        char c = nextClean();
+        switch (c)
+        {
+            case '"' :
+            case '\'' :
+                skipString(c);
+                return;
+            case '{' :
+                skipObject();
+                return;
+            case '[' :
+                skipArray(']');
+                return;
+            case '(' :
+                skipArray(')');
+                return;
+        }
+
+        if (c == 0)
+        {
+            throw syntaxError("Missing value");
+        }
+        pos--;
+        boolean empty = true;
+        for (;;)
+        {
+            if (pos >= limit && !fill())
+            {
+                break;
+            }
+            c = buf[pos];
+            if (c < ' ' || ",:]}/\\\"[{;=#".indexOf(c) >= 0)
+            {
+                break;
+            }
+            if (c > ' ')
+            {
+                empty = false;
+            }
+            pos++;
+        }
+        if (empty)
+        {
+            throw syntaxError("Missing value");
+        }
+    }
+
+    /**
+     * Skip the chars up to the next close quote character, as {@link #nextString(char)}.
+     * @param quote The quoting character
+     * @throws JSONException Unterminated string, or an illegal escape
+     */
+    private void skipString(char quote) throws JSONException
+    {
+        backed = false;
+        lastAtEnd = false;
+        for (;;)
+        {
+            while (pos < limit)
+            {
+                char c = buf[pos];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0)
                 {
-                    reader.reset();
-                    this.index = startIndex;
-                    return c;
+                    break;
+                }
+                pos++;
+            }
+            if (pos >= limit)
+            {
+                if (!fill())
+                {
+                    throw syntaxError("Unterminated string");
                 }
+                continue;
+            }
+
+            char c = buf[pos++];
+            if (c == quote)
+            {
+                return;
+            }
+            if (c != '\\')
+            {
+                pos--;
+                throw syntaxError("Unterminated string");
+            }
+
+            c = next();
+            switch (c)
+            {
+                case 'u' :
+                    nextHexChar(4);
+                    break;
+                case 'x' :
+                    nextHexChar(2);
+                    break;
+                case 0 :
+                    throw syntaxError("Unterminated string");
+                default :
+                    break;
             }
-            while (c != to);
         }
-        catch (IOException exc)
+    }
+
+    /**
+     * Skip the members of an object, following the '{', as parsed by {@link JSONObject#JSONObject(JSONTokener)}.
+     * @throws JSONException If the object is malformed
+     */
+    private void skipObject() throws JSONException
+    {
+        for (;;)
         {
-            throw new JSONException(exc);
+            switch (nextClean())
+            {
+                case 0 :
+                    throw syntaxError("A JSONObject text must end with '}'");
+                case '}' :
+                    return;
+                default :
+                    back();
+                    skipValue();
+            }
+
+            char c = nextClean();
+            if (c == '=')
+            {
+                if (next() != '>')
+                {
+                    back();
+                }
+            }
+            else if (c != ':')
+            {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            skipValue();
+
+            switch (nextClean())
+            {
+                case ';' :
+                case ',' :
+                    if (nextClean() == '}')
+                    {
+                        return;
+                    }
+                    back();
+                    break;
+                case '}' :
+                    return;
+                default :
+                    throw syntaxError("Expected a ',' or '}'");
+            }
         }
+    }
 
+    /**
+     * Skip the elements of an array, following the '[' or '(', as parsed by {@link JSONArray#JSONArray(JSONTokener)}.
+     * @param q The closing char expected
+     * @throws JSONException If the array is malformed
+     */
+    private void skipArray(char q) throws JSONException
+    {
+        if (nextClean() == ']')
+        {
+            return;
+        }
         back();
-        return c;
+        for (;;)
+        {
+            if (nextClean() == ',')
+            {
+                back();
+            }
+            else
+            {
+                back();
+                skipValue();
+            }
+            char c = nextClean();
+            switch (c)
+            {
+                case ';' :
+                case ',' :
+                    if (nextClean() == ']')
+                    {
+                        return;
+                    }
+                    back();
+                    break;
+                case ']' :
+                case ')' :
+                    if (q != c)
+                    {
+                        throw syntaxError("Expected a '" + Character.valueOf(q) + "'");
+                    }
+                    return;
+                default :
+                    throw syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Method to start capturing the source from the current position, so that it is retained until {@link #endCapture()}.
+     */
+    void startCapture()
+    {
+        mark = pos;
+    }
+
+    /**
+     * Accessor for the number of chars consumed since the capture was started.
+     * @return The number of chars
+     */
+    int getCaptureLength()
+    {
+        return pos - mark;
+    }
+
+    /**
+     * Method to end the capture started by {@link #startCapture()}.
+     * @return The chars consumed since the capture was started
+     */
+    char[] endCapture()
+    {
+        char[] chars = Arrays.copyOfRange(buf, mark, pos);
+        mark = -1;
+        if (eof && pos >= limit)
+        {
+            // Reached the end of the source while capturing, so the window wasn't released
+            releaseWindow();
+        }
+        return chars;
     }
 
     /**
@@ -443,6 +1145,6 @@ public class JSONTokener
      */
     public String toString()
     {
-        return " at character " + index;
+        return " at character " + (offset + pos);
     }
 }
\ No newline at end of file